@@ -0,0 +1,77 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import com.sameerbasha1.shazam.ShazamApplication;
+import com.sameerbasha1.shazam.model.StoredFile;
+import com.sameerbasha1.shazam.model.TransferSession;
+import com.sameerbasha1.shazam.service.FileStorageService;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The real application context, started once per fork on a random port with its
+ * own upload directory, so services are wired exactly as in production.
+ */
+@State(Scope.Benchmark)
+public class BackendState {
+
+    public ConfigurableApplicationContext context;
+    public FileStorageService storageService;
+    private Path uploadDir;
+
+    @Setup
+    public void start() throws IOException {
+        uploadDir = Files.createTempDirectory("shazam-jmh");
+        // Spring's own startup output; the application log is limited to warnings below
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Passed as arguments: application.properties would override default properties
+        context = new SpringApplicationBuilder(ShazamApplication.class)
+                .run("--server.port=0",
+                        "--shazam.storage.upload-dir=" + uploadDir,
+                        "--spring.devtools.restart.enabled=false",
+                        "--shazam.log.level=WARN");
+        storageService = context.getBean(FileStorageService.class);
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        context.close();
+        deleteRecursively(uploadDir);
+    }
+
+    /**
+     * Deletes a transfer's files and their blobs, so long runs don't fill the disk.
+     */
+    public void discard(TransferSession session) throws IOException {
+        deleteRecursively(session.getPath());
+        for (StoredFile file : session.getFiles()) {
+            if (file.getSha256() != null) {
+                Path prefix = uploadDir.resolve(".blobs").resolve(file.getSha256().substring(0, 2));
+                Files.deleteIfExists(prefix.resolve(file.getSha256()));
+                Files.deleteIfExists(prefix.resolve(file.getSha256() + ".gz"));
+            }
+        }
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (var walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(paths.get(i));
+        }
+    }
+}
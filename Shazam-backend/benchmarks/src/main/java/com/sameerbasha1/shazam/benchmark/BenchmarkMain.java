@@ -0,0 +1,42 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Runs the JMH benchmarks with the usual JMH command line, except that results are
+ * written as JSON to target/jmh-result.json unless -rf/-rff say otherwise, so runs
+ * can be compared (e.g. with jmh.morethan.io or a diff of the score fields).
+ *
+ * From the repository root, after "mvn -Pbenchmarks install -DskipTests":
+ *   mvn -f Shazam-backend/benchmarks exec:exec
+ *   mvn -f Shazam-backend/benchmarks exec:exec -Djmh.args="ExpirySweepBenchmark -p sessions=1000000"
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        // exec:exec passes jmh.args as one argument
+        String[] jmhArgs = Arrays.stream(args)
+                .flatMap(arg -> Arrays.stream(arg.trim().split("\\s+")))
+                .filter(arg -> !arg.isEmpty())
+                .toArray(String[]::new);
+
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            Files.createDirectories(Paths.get("target"));
+            options.result("target/jmh-result.json");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import com.sameerbasha1.shazam.model.TransferSession;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The download paths of /api/d/{id}: a single file looked up with loadFile and
+ * streamed out, and a multi-file transfer zipped by writeZip or sent from the archive
+ * cache. Output goes to a discarding stream so only the server-side work is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DownloadBenchmark {
+
+    private static final int ZIP_FILES = 10;
+
+    @Param({"64", "1024", "16384"})
+    public int fileSizeKb;
+
+    private String singleFileId;
+    private String zipId;
+    private WritableByteChannel sink;
+
+    @Setup
+    public void storeTransfers(BackendState backend) throws Exception {
+        Random random = new Random(42);
+
+        byte[] content = new byte[fileSizeKb * 1024];
+        random.nextBytes(content);
+        singleFileId = backend.storageService.storeFiles(
+                new MultipartFile[]{new BytesMultipartFile("single.bin", content)}, List.of(), List.of(), "127.0.0.1").getId();
+
+        MultipartFile[] files = new MultipartFile[ZIP_FILES];
+        for (int i = 0; i < ZIP_FILES; i++) {
+            byte[] fileContent = new byte[fileSizeKb * 1024];
+            random.nextBytes(fileContent);
+            files[i] = new BytesMultipartFile("file" + i + ".bin", fileContent);
+        }
+        zipId = backend.storageService.storeFiles(files, List.of(), List.of(), "127.0.0.1").getId();
+
+        sink = Channels.newChannel(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public long singleFile(BackendState backend) throws Exception {
+        TransferSession session = backend.storageService.openDownload(singleFileId);
+        Path file = backend.storageService.loadFile(session);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long sent = 0;
+            while (sent < size) {
+                sent += channel.transferTo(sent, size - sent, sink);
+            }
+            return sent;
+        }
+    }
+
+    @Benchmark
+    public void zip(BackendState backend) throws Exception {
+        TransferSession session = backend.storageService.openDownload(zipId);
+        backend.storageService.writeZip(session, OutputStream.nullOutputStream());
+    }
+
+    /**
+     * A repeat download, served from the archive built by the first one.
+     */
+    @Benchmark
+    public void cachedZip(BackendState backend) throws Exception {
+        TransferSession session = backend.storageService.openDownload(zipId);
+        backend.storageService.streamZip(session, OutputStream.nullOutputStream());
+    }
+}
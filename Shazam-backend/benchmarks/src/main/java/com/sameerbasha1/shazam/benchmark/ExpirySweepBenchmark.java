@@ -0,0 +1,81 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import com.sameerbasha1.shazam.model.StoredFile;
+import com.sameerbasha1.shazam.model.TransferSession;
+import com.sameerbasha1.shazam.service.ExpiryIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One expiry sweep with a given number of live sessions, of which DUE have expired.
+ * indexSweep is what cleanupExpiredSessions does now (take the due entries off the
+ * expiry index); fullScan is the previous walk over every session, kept as the
+ * baseline. Both put the due sessions back afterwards so every call sees the same
+ * state.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class ExpirySweepBenchmark {
+
+    private static final int DUE = 100;
+    private static final List<StoredFile> FILES = List.of(new StoredFile("file.bin", 1024, null));
+
+    @Param({"10000", "100000", "1000000"})
+    public int sessions;
+
+    private final ExpiryIndex index = new ExpiryIndex();
+    private final Map<String, TransferSession> sessionMap = new ConcurrentHashMap<>();
+    private final List<TransferSession> dueSessions = new ArrayList<>();
+
+    @Setup
+    public void createSessions() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sessions; i++) {
+            boolean due = i < DUE;
+            String id = String.format("%08x", i);
+            long expiryTime = due ? now - 1000 : now + 3_600_000 + i;
+            TransferSession session = new TransferSession(id, Paths.get("uploads", id), FILES, expiryTime);
+            sessionMap.put(id, session);
+            index.add(id, expiryTime);
+            if (due) {
+                dueSessions.add(session);
+            }
+        }
+    }
+
+    @Benchmark
+    public int indexSweep() {
+        List<String> due = index.pollDue(System.currentTimeMillis());
+        for (TransferSession session : dueSessions) {
+            index.add(session.getId(), session.getExpiryTime());
+        }
+        return due.size();
+    }
+
+    @Benchmark
+    public int fullScan() {
+        List<String> toRemove = new ArrayList<>();
+        for (Map.Entry<String, TransferSession> entry : sessionMap.entrySet()) {
+            if (entry.getValue().isExpired()) {
+                toRemove.add(entry.getKey());
+            }
+        }
+        for (String transferId : toRemove) {
+            sessionMap.remove(transferId);
+        }
+        for (TransferSession session : dueSessions) {
+            sessionMap.put(session.getId(), session);
+        }
+        return toRemove.size();
+    }
+}
@@ -0,0 +1,145 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Measures how many bytes the server writes to disk for every byte uploaded through
+ * /api/upload, once with zero-copy ingest and once with the copying fallback.
+ *
+ * The backend runs as a child process so its I/O counters in /proc/<pid>/io are not
+ * polluted by the client (Linux only). write_bytes is what reached the storage layer,
+ * wchar is everything passed to write(2), including socket writes for responses.
+ *
+ * Usage: IngestWriteBenchmark <path to Shazam exec jar> [files] [file size MB]
+ */
+public class IngestWriteBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: IngestWriteBenchmark <Shazam jar> [files] [file size MB]");
+            System.exit(1);
+        }
+        Path jar = Paths.get(args[0]).toAbsolutePath();
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int fileSizeMb = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        System.out.printf("%-12s %8s %12s %16s %16s%n", "mode", "files", "uploaded", "write_bytes/B", "wchar/B");
+        for (boolean zeroCopy : new boolean[]{true, false}) {
+            run(jar, zeroCopy, files, fileSizeMb * 1024 * 1024);
+        }
+    }
+
+    private static void run(Path jar, boolean zeroCopy, int files, int fileSize) throws Exception {
+        Path workDir = Files.createTempDirectory("shazam-ingest");
+        int port = freePort();
+
+        Process server = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-jar", jar.toString(),
+                "--server.port=" + port,
+                "--shazam.storage.zero-copy-ingest=" + zeroCopy)
+                .directory(workDir.toFile())
+                .redirectOutput(workDir.resolve("server.log").toFile())
+                .redirectErrorStream(true)
+                .start();
+
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            String base = "http://localhost:" + port + "/api";
+            awaitStartup(client, base);
+
+            byte[] payload = new byte[fileSize];
+            new Random(42).nextBytes(payload);
+
+            // One warm-up upload so class loading and logging don't count
+            upload(client, base, payload);
+
+            Map<String, Long> before = ioCounters(server.pid());
+            long uploaded = 0;
+            for (int i = 0; i < files; i++) {
+                upload(client, base, payload);
+                uploaded += payload.length;
+            }
+            Map<String, Long> after = ioCounters(server.pid());
+
+            double writeBytes = (after.get("write_bytes") - before.get("write_bytes")) / (double) uploaded;
+            double wchar = (after.get("wchar") - before.get("wchar")) / (double) uploaded;
+            System.out.printf("%-12s %8d %10dMB %16.3f %16.3f%n",
+                    zeroCopy ? "zero-copy" : "copy", files, uploaded / (1024 * 1024), writeBytes, wchar);
+        } finally {
+            server.destroy();
+            server.waitFor();
+            deleteRecursively(workDir);
+        }
+    }
+
+    private static void upload(HttpClient client, String base, byte[] payload) throws Exception {
+        String boundary = UUID.randomUUID().toString();
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"files\"; filename=\"payload.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, payload, tail)))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Upload failed: " + response.statusCode() + " " + response.body());
+        }
+    }
+
+    private static void awaitStartup(HttpClient client, String base) throws Exception {
+        HttpRequest health = HttpRequest.newBuilder(URI.create(base + "/health")).build();
+        for (int i = 0; i < 120; i++) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not up yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Backend did not start");
+    }
+
+    private static Map<String, Long> ioCounters(long pid) throws IOException {
+        return Files.readAllLines(Paths.get("/proc", Long.toString(pid), "io")).stream()
+                .map(line -> line.split(":\\s*"))
+                .collect(Collectors.toMap(parts -> parts[0], parts -> Long.parseLong(parts[1].trim())));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (var walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(paths.get(i));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import com.sameerbasha1.shazam.model.PromptResponse;
+import com.sameerbasha1.shazam.service.EventLog;
+import com.sameerbasha1.shazam.service.PromptRefinerService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PromptRefinerService.refinePrompt on a one-line prompt and on a long, multi-paragraph one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PromptRefinerBenchmark {
+
+    private static final String SHORT_PROMPT = "write a function to sort a list";
+
+    private final PromptRefinerService refinerService = new PromptRefinerService();
+    private String longPrompt;
+
+    @Setup
+    public void setUp() {
+        // The service logs every call
+        EventLog.configure(EventLog.Level.WARN, Map.of());
+
+        StringBuilder prompt = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            prompt.append("I am working on a data pipeline that reads customer orders from several ")
+                    .append("sources, and I want you to explain how to make the deduplication step ")
+                    .append("faster and more reliable, with examples in Java. ");
+        }
+        longPrompt = prompt.toString();
+    }
+
+    @Benchmark
+    public PromptResponse shortPrompt() {
+        return refinerService.refinePrompt(SHORT_PROMPT);
+    }
+
+    @Benchmark
+    public PromptResponse longPrompt() {
+        return refinerService.refinePrompt(longPrompt);
+    }
+}
@@ -0,0 +1,222 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares how many concurrent slow uploads the backend keeps moving with platform
+ * request threads and with virtual threads (spring.threads.virtual.enabled).
+ *
+ * Every client sends one chunk of a chunked upload at a fixed, slow rate, the way a
+ * phone on a weak uplink does. While a request waits for a free platform thread its
+ * socket buffer fills up and the client stalls, so with more clients than threads the
+ * later ones finish a whole transfer time late. With virtual threads every client is
+ * read as its bytes arrive and all of them finish after roughly the same time.
+ *
+ * A client counts as sustained if it finished within 1.25x the time its own sending
+ * rate needs. The backend runs as a child process, once per mode.
+ *
+ * Usage: SlowClientBenchmark <path to Shazam exec jar> [clients] [platform threads]
+ *                            [KB per client] [seconds per upload]
+ */
+public class SlowClientBenchmark {
+
+    private static final int PIECES = 20;
+    private static final int SEND_BUFFER = 32 * 1024;
+    private static final Pattern UPLOAD_ID = Pattern.compile("\"uploadId\"\\s*:\\s*\"([A-Za-z0-9]+)\"");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SlowClientBenchmark <Shazam jar> [clients] [platform threads] [KB per client] [seconds]");
+            System.exit(1);
+        }
+        Path jar = Paths.get(args[0]).toAbsolutePath();
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int sizeKb = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        System.out.printf("%d clients, %d KB each over %d s; platform pool: %d threads%n",
+                clients, sizeKb, seconds, threads);
+        System.out.printf("%-10s %10s %10s %10s %10s %12s%n", "mode", "p50 s", "p95 s", "max s", "failed", "sustained");
+        for (boolean virtual : new boolean[]{false, true}) {
+            run(jar, virtual, clients, threads, sizeKb * 1024, seconds);
+        }
+    }
+
+    private static void run(Path jar, boolean virtual, int clients, int threads, int size, int seconds) throws Exception {
+        Path workDir = Files.createTempDirectory("shazam-slow");
+        int port = freePort();
+
+        Process server = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-jar", jar.toString(),
+                "--server.port=" + port,
+                "--server.tomcat.threads.max=" + threads,
+                "--spring.threads.virtual.enabled=" + virtual)
+                .directory(workDir.toFile())
+                .redirectOutput(workDir.resolve("server.log").toFile())
+                .redirectErrorStream(true)
+                .start();
+
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            String base = "http://localhost:" + port + "/api";
+            awaitStartup(client, base);
+
+            String uploadId = initUpload(client, base, clients, size);
+            byte[] payload = new byte[size];
+            Arrays.fill(payload, (byte) 'x');
+            long pieceDelayNanos = seconds * 1_000_000_000L / PIECES;
+
+            List<Future<Double>> results = new ArrayList<>();
+            try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < clients; i++) {
+                    int fileIndex = i;
+                    results.add(pool.submit(() -> slowUpload(port, uploadId, fileIndex, payload, pieceDelayNanos)));
+                }
+            }
+
+            List<Double> times = new ArrayList<>();
+            int failed = 0;
+            for (Future<Double> result : results) {
+                try {
+                    times.add(result.get());
+                } catch (Exception e) {
+                    failed++;
+                }
+            }
+            times.sort(null);
+
+            long sustained = times.stream().filter(t -> t <= seconds * 1.25).count();
+            System.out.printf("%-10s %10.2f %10.2f %10.2f %10d %8d/%-4d%n",
+                    virtual ? "virtual" : "platform",
+                    percentile(times, 0.50), percentile(times, 0.95), percentile(times, 1.0),
+                    failed, sustained, clients);
+        } finally {
+            server.destroy();
+            server.waitFor();
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Sends one chunk in evenly paced pieces and returns the seconds until the
+     * response status arrived.
+     */
+    private static double slowUpload(int port, String uploadId, int fileIndex, byte[] payload,
+                                     long pieceDelayNanos) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            // A slow link holds little in flight; without this, loopback autotuning lets a
+            // stalled client park megabytes in its send buffer and hide the wait
+            socket.setSendBufferSize(SEND_BUFFER);
+            socket.connect(new InetSocketAddress("localhost", port));
+            OutputStream out = socket.getOutputStream();
+            out.write(("PUT /api/upload/" + uploadId + "/chunk/0?file=" + fileIndex + " HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + payload.length + "\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+
+            // Paced from the end of the previous write: a slow link can't catch up on time
+            // lost while the server wasn't reading
+            int pieceSize = (payload.length + PIECES - 1) / PIECES;
+            for (int piece = 0; piece < PIECES; piece++) {
+                if (piece > 0) {
+                    Thread.sleep(pieceDelayNanos / 1_000_000, (int) (pieceDelayNanos % 1_000_000));
+                }
+                int offset = piece * pieceSize;
+                out.write(payload, offset, Math.min(pieceSize, payload.length - offset));
+                out.flush();
+            }
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String status = in.readLine();
+            if (status == null || !status.contains(" 200")) {
+                throw new IOException("Chunk upload failed: " + status);
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private static String initUpload(HttpClient client, String base, int files, int size) throws Exception {
+        StringBuilder json = new StringBuilder("{\"chunkSize\":").append(Math.max(size, 256 * 1024)).append(",\"files\":[");
+        for (int i = 0; i < files; i++) {
+            json.append(i > 0 ? "," : "").append("{\"name\":\"f").append(i).append(".bin\",\"size\":").append(size).append('}');
+        }
+        json.append("]}");
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/upload/init"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json.toString()))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        Matcher matcher = UPLOAD_ID.matcher(response.body());
+        if (response.statusCode() != 200 || !matcher.find()) {
+            throw new IOException("Upload init failed: " + response.statusCode() + " " + response.body());
+        }
+        return matcher.group(1);
+    }
+
+    private static double percentile(List<Double> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static void awaitStartup(HttpClient client, String base) throws Exception {
+        HttpRequest health = HttpRequest.newBuilder(URI.create(base + "/health")).build();
+        for (int i = 0; i < 120; i++) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not up yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Backend did not start");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (var walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(paths.get(i));
+        }
+    }
+}
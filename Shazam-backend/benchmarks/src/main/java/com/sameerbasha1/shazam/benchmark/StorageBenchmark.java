@@ -0,0 +1,63 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import com.sameerbasha1.shazam.model.TransferSession;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileStorageService.storeFiles: moving parts into a transfer directory, hashing them
+ * and registering (and journaling) the session. Every call stores fresh content, so
+ * this is the cost without deduplication hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+
+    @Param({"1", "10"})
+    public int fileCount;
+
+    @Param({"64", "1024", "16384"})
+    public int fileSizeKb;
+
+    private MultipartFile[] files;
+    private byte[][] contents;
+    private long sequence;
+    private TransferSession stored;
+
+    @Setup
+    public void createFiles() {
+        Random random = new Random(42);
+        files = new MultipartFile[fileCount];
+        contents = new byte[fileCount][];
+        for (int i = 0; i < fileCount; i++) {
+            contents[i] = new byte[fileSizeKb * 1024];
+            random.nextBytes(contents[i]);
+            files[i] = new BytesMultipartFile("file" + i + ".bin", contents[i]);
+        }
+    }
+
+    @Benchmark
+    public TransferSession storeFiles(BackendState backend) throws Exception {
+        // Make every upload unique so none of it is deduplicated
+        sequence++;
+        for (byte[] content : contents) {
+            ByteBuffer.wrap(content).putLong(sequence);
+        }
+        stored = backend.storageService.storeFiles(files, List.of(), List.of(), "127.0.0.1");
+        return stored;
+    }
+
+    @TearDown(Level.Invocation)
+    public void discard(BackendState backend) throws Exception {
+        backend.discard(stored);
+    }
+}
@@ -0,0 +1,114 @@
+package com.sameerbasha1.shazam.benchmark;
+
+import com.sameerbasha1.shazam.service.TransferLayout;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating, looking up and deleting one transfer directory among a given number of
+ * existing ones. "sharded" is TransferLayout (uploads/ab/cd/<id>), "flat" the previous
+ * layout with every transfer directly in uploads/, kept as the baseline.
+ *
+ * Setup creates that many empty directories in a temp dir on the default filesystem,
+ * which takes a while and a few GB of inodes at a million:
+ *   mvn compile exec:exec -Djmh.args="TransferLayoutBenchmark -p transfers=1000000"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferLayoutBenchmark {
+
+    @Param({"flat", "sharded"})
+    public String layout;
+
+    @Param({"100000", "1000000"})
+    public int transfers;
+
+    private Path root;
+    private TransferLayout sharded;
+    private String[] ids;
+    private long sequence;
+
+    @Setup
+    public void createTransfers() throws IOException {
+        root = Files.createTempDirectory("shazam-layout");
+        sharded = new TransferLayout(root);
+        Random random = new Random(42);
+        ids = new String[transfers];
+        for (int i = 0; i < transfers; i++) {
+            ids[i] = String.format("%08x", random.nextInt());
+            Files.createDirectories(dirOf(ids[i]));
+        }
+    }
+
+    @TearDown
+    public void deleteTransfers() throws IOException {
+        BackendState.deleteRecursively(root);
+    }
+
+    /**
+     * A transfer directory that does not exist yet, removed again after each call.
+     */
+    @State(Scope.Thread)
+    public static class NewTransfer {
+        Path dir;
+
+        @Setup(Level.Invocation)
+        public void pick(TransferLayoutBenchmark benchmark) {
+            dir = benchmark.dirOf(benchmark.nextId());
+        }
+
+        @TearDown(Level.Invocation)
+        public void remove() throws IOException {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * An extra transfer directory created before each call, for it to delete.
+     */
+    @State(Scope.Thread)
+    public static class DoomedTransfer {
+        Path dir;
+
+        @Setup(Level.Invocation)
+        public void create(TransferLayoutBenchmark benchmark) throws IOException {
+            dir = benchmark.dirOf(benchmark.nextId());
+            Files.createDirectories(dir);
+        }
+    }
+
+    @Benchmark
+    public Path create(NewTransfer transfer) throws IOException {
+        // As storeFiles does it, creating the shard directories if needed
+        return Files.createDirectories(transfer.dir);
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        return Files.isDirectory(dirOf(ids[ThreadLocalRandom.current().nextInt(ids.length)]));
+    }
+
+    @Benchmark
+    public void delete(DoomedTransfer transfer) throws IOException {
+        Files.delete(transfer.dir);
+    }
+
+    private Path dirOf(String transferId) {
+        return "flat".equals(layout) ? root.resolve(transferId) : sharded.dirOf(transferId);
+    }
+
+    private synchronized String nextId() {
+        // Never a hex string, so it cannot collide with one of the existing IDs
+        return "n" + Long.toString(sequence++, 36);
+    }
+}
@@ -0,0 +1,39 @@
+package com.sameerbasha1.shazam;
+
+import com.sameerbasha1.shazam.service.EventLog;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+public class EventLogConfig {
+
+    @Value("${shazam.log.level:INFO}")
+    private EventLog.Level level;
+
+    // Comma-separated event type=rate pairs, e.g. download.request=0.1
+    @Value("${shazam.log.sample:}")
+    private String sample;
+
+    /**
+     * Applies shazam.log.* to the event log, which logs with its defaults until then.
+     */
+    @PostConstruct
+    public void configure() {
+        Map<String, Double> rates = new HashMap<>();
+        for (String entry : sample.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] typeAndRate = entry.split("=", 2);
+            if (typeAndRate.length != 2) {
+                throw new IllegalArgumentException("Expected type=rate in shazam.log.sample, got " + entry);
+            }
+            rates.put(typeAndRate[0].trim(), Double.parseDouble(typeAndRate[1].trim()));
+        }
+        EventLog.configure(level, rates);
+    }
+}
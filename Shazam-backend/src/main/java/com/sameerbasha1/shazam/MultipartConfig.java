@@ -0,0 +1,68 @@
+package com.sameerbasha1.shazam;
+
+import com.sameerbasha1.shazam.service.EventLog;
+import jakarta.servlet.MultipartConfigElement;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.servlet.autoconfigure.MultipartProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+@Configuration
+public class MultipartConfig {
+
+    // A spool file still being written is touched all the time; one left alone this long was cut off
+    private static final long STALE_SPOOL_MS = 60 * 60 * 1000;
+
+    /**
+     * Spools multipart bodies inside the upload directory (unless a location is set
+     * explicitly), so storing an upload is a rename on the same filesystem rather
+     * than a second full copy out of the servlet container's temp dir. Spool files
+     * left behind by a crash are removed at startup.
+     */
+    @Bean
+    public MultipartConfigElement multipartConfigElement(
+            MultipartProperties properties,
+            @Value("${shazam.storage.upload-dir:uploads}") Path uploadDir) throws IOException {
+        MultipartConfigElement defaults = properties.createMultipartConfig();
+        if (StringUtils.hasText(properties.getLocation())) {
+            return defaults;
+        }
+
+        Path spoolDir = uploadDir.resolve(".incoming").toAbsolutePath();
+        Files.createDirectories(spoolDir);
+        clearStaleSpoolFiles(spoolDir);
+        return new MultipartConfigElement(spoolDir.toString(), defaults.getMaxFileSize(),
+                defaults.getMaxRequestSize(), defaults.getFileSizeThreshold());
+    }
+
+    /**
+     * Other processes sharing the upload directory may be receiving uploads right now,
+     * so only files that have not been written for a while are deleted.
+     */
+    private static void clearStaleSpoolFiles(Path spoolDir) throws IOException {
+        long cutoff = System.currentTimeMillis() - STALE_SPOOL_MS;
+        int cleared = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir)) {
+            for (Path file : files) {
+                try {
+                    if (Files.isRegularFile(file) && Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                        Files.deleteIfExists(file);
+                        cleared++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Taken by its upload meanwhile
+                }
+            }
+        }
+        if (cleared > 0) {
+            EventLog.info("storage", "🧹 Removed {} multipart spool files left behind in {}", cleared, spoolDir);
+        }
+    }
+}
@@ -7,6 +7,13 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 public class ShazamApplication {
 
     public static void main(String[] args) {
+        // On Java 21 a virtual thread blocked in Tomcat's socket read pins its carrier, and
+        // the scheduler adds at most 256 carriers to make up for it. That would cap
+        // virtual-thread mode at 256 concurrent slow uploads; it has to be set before
+        // the first virtual thread is started.
+        if (System.getProperty("jdk.virtualThreadScheduler.maxPoolSize") == null) {
+            System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", "4096");
+        }
         SpringApplication.run(ShazamApplication.class, args);
     }
 
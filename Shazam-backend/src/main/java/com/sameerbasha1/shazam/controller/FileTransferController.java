@@ -1,24 +1,53 @@
 package com.sameerbasha1.shazam.controller;
 
+import com.sameerbasha1.shazam.model.ChunkedUpload;
+import com.sameerbasha1.shazam.model.PreflightRequest;
+import com.sameerbasha1.shazam.model.StoredFile;
 import com.sameerbasha1.shazam.model.TransferInfo;
 import com.sameerbasha1.shazam.model.TransferSession;
+import com.sameerbasha1.shazam.model.UploadInitRequest;
 import com.sameerbasha1.shazam.model.UploadResponse;
+import com.sameerbasha1.shazam.service.BlobStore;
+import com.sameerbasha1.shazam.service.ChunkedUploadService;
+import com.sameerbasha1.shazam.service.ContentProof;
+import com.sameerbasha1.shazam.service.EventLog;
 import com.sameerbasha1.shazam.service.FileStorageService;
+import com.sameerbasha1.shazam.service.GzipFile;
+import com.sameerbasha1.shazam.service.HotTransferCache;
+import com.sameerbasha1.shazam.service.TransferMetrics;
+import com.sameerbasha1.shazam.web.FileResponseWriter;
+import com.sameerbasha1.shazam.web.RateLimitFilter;
+import com.sameerbasha1.shazam.web.RequestStartFilter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/api")
@@ -33,16 +62,46 @@ public class FileTransferController {
     @Autowired
     private FileStorageService storageService;
 
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private FileResponseWriter fileResponseWriter;
+
+    @Autowired
+    private ContentProof contentProof;
+
+    @Autowired
+    private TransferMetrics metrics;
+
+    // Let browsers and shared caches keep transfer content until the transfer expires
+    @Value("${shazam.download.immutable:false}")
+    private boolean immutableDownloads;
+
     /**
-     * Upload files and create transfer session
+     * Upload files and create transfer session. Files the server already has (see
+     * /upload/preflight) can be passed as "existing=sha256:name" instead of uploaded,
+     * with "proof=<challenge>:<answer>" for each such hash.
      */
     @PostMapping("/upload")
     public ResponseEntity<?> uploadFiles(
-            @RequestParam("files") MultipartFile[] files,
+            @RequestParam(value = "files", required = false) MultipartFile[] files,
+            @RequestParam(value = "existing", required = false) List<String> existing,
+            @RequestParam(value = "proof", required = false) List<String> proofs,
             HttpServletRequest request) {
         try {
+            if (files == null) {
+                files = new MultipartFile[0];
+            }
+            if (existing == null) {
+                existing = List.of();
+            }
+            if (proofs == null) {
+                proofs = List.of();
+            }
+
             // Validate files
-            if (files == null || files.length == 0) {
+            if (files.length == 0 && existing.isEmpty()) {
                 return ResponseEntity.badRequest()
                         .body(Map.of("error", "No files provided"));
             }
@@ -51,70 +110,278 @@ public class FileTransferController {
             String clientIp = getClientIp(request);
 
             // Store files
-            TransferSession session = storageService.storeFiles(files, clientIp);
-
-            // Generate download URL (use your actual IP or domain)
-            String baseUrl = getBaseUrl(request);
-            String downloadUrl = baseUrl + "/api/d/" + session.getId();
-
-            // Create response with transfer info
-            Map<String, Object> response = new HashMap<>();
-            response.put("url", downloadUrl);
-            response.put("transferId", session.getId());
-            response.put("fileCount", session.getFileNames().size());
-            response.put("totalSize", session.getTotalSize());
-            response.put("expiresAt", LocalDateTime.ofInstant(
-                    Instant.ofEpochMilli(session.getExpiryTime()),
-                    ZoneId.systemDefault()
-            ));
+            TransferSession session = storageService.storeFiles(files, existing, proofs, clientIp);
+            long uploaded = 0;
+            for (MultipartFile file : files) {
+                uploaded += file.getSize();
+            }
+            metrics.recordUpload(uploaded, System.nanoTime() - RequestStartFilter.startOf(request));
 
-            System.out.println("✅ Upload successful - Transfer ID: " + session.getId());
+            Map<String, Object> response = uploadResponse(session, request);
+
+            EventLog.info("upload.request", "✅ Upload successful - Transfer ID: {}", session.getId());
 
             return ResponseEntity.ok(response);
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            // Referenced content is gone; the client has to upload it after all
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
-            System.err.println("❌ Upload failed: " + e.getMessage());
-            e.printStackTrace();
+            EventLog.error("upload.request", e, "❌ Upload failed: {}", e.getMessage());
             return ResponseEntity.status(500)
                     .body(Map.of("error", "Upload failed: " + e.getMessage()));
         }
     }
 
+    /**
+     * Check which files the server already has, by SHA-256, before uploading them.
+     * Each one present comes with a challenge: to use it instead of uploading, the
+     * client sends the SHA-256 (hex) of the challenge followed by the content's bytes
+     * in [offset, offset + length), as proof "<challenge>:<answer>".
+     */
+    @PostMapping("/upload/preflight")
+    public ResponseEntity<?> preflight(@RequestBody PreflightRequest preflightRequest) {
+        List<String> hashes = preflightRequest.getHashes();
+        if (hashes == null || hashes.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "No hashes provided"));
+        }
+
+        List<Map<String, Object>> present = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String hash : hashes) {
+            String sha256 = hash != null ? hash.toLowerCase() : null;
+            if (!BlobStore.isValidHash(sha256)) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "Not a SHA-256 hash: " + hash));
+            }
+            ContentProof.Challenge challenge = contentProof.issue(sha256);
+            if (challenge == null) {
+                missing.add(sha256);
+                continue;
+            }
+            present.add(Map.of("sha256", sha256, "challenge", challenge.challenge(),
+                    "offset", challenge.offset(), "length", challenge.length()));
+        }
+
+        return ResponseEntity.ok(Map.of("present", present, "missing", missing));
+    }
+
+    /**
+     * Start a chunked (resumable) upload
+     */
+    @PostMapping("/upload/init")
+    public ResponseEntity<?> initChunkedUpload(
+            @RequestBody UploadInitRequest initRequest,
+            HttpServletRequest request) {
+        try {
+            ChunkedUpload upload = chunkedUploadService.initUpload(initRequest, getClientIp(request));
+            // Files the server already had are linked in and count as received
+            return ResponseEntity.ok(chunkedUploadStatus(upload, chunkedUploadService.getReceivedChunks(upload.getId())));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            EventLog.error("upload.request", "❌ Chunked upload init failed: {}", e.getMessage());
+            return ResponseEntity.status(500)
+                    .body(Map.of("error", "Upload init failed: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Upload one chunk; chunks may arrive in any order and in parallel
+     */
+    @RequestMapping(value = "/upload/{uploadId}/chunk/{chunk}",
+            method = {RequestMethod.PUT, RequestMethod.POST},
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String uploadId,
+            @PathVariable int chunk,
+            @RequestParam(value = "file", defaultValue = "0") int fileIndex,
+            HttpServletRequest request) {
+        try {
+            chunkedUploadService.writeChunk(uploadId, fileIndex, chunk, request.getInputStream());
+            metrics.recordUpload(request.getContentLengthLong(), System.nanoTime() - RequestStartFilter.startOf(request));
+            return ResponseEntity.ok(Map.of("uploadId", uploadId, "file", fileIndex, "chunk", chunk));
+
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            EventLog.error("upload.chunk", "❌ Chunk upload failed: {}", e.getMessage());
+            return ResponseEntity.status(500)
+                    .body(Map.of("error", "Chunk upload failed: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get which chunks of a chunked upload have arrived, for resuming
+     */
+    @GetMapping("/upload/{uploadId}")
+    public ResponseEntity<?> getChunkedUploadStatus(@PathVariable String uploadId) {
+        try {
+            ChunkedUpload upload = chunkedUploadService.getUpload(uploadId);
+            return ResponseEntity.ok(chunkedUploadStatus(upload, chunkedUploadService.getReceivedChunks(uploadId)));
+
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Complete a chunked upload and create the transfer session
+     */
+    @PostMapping("/upload/{uploadId}/complete")
+    public ResponseEntity<?> completeChunkedUpload(
+            @PathVariable String uploadId,
+            HttpServletRequest request) {
+        try {
+            TransferSession session = chunkedUploadService.completeUpload(uploadId);
+            return ResponseEntity.ok(uploadResponse(session, request));
+
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            EventLog.error("upload.request", "❌ Chunked upload completion failed: {}", e.getMessage());
+            return ResponseEntity.status(500)
+                    .body(Map.of("error", "Upload failed: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Abort a chunked upload and discard its chunks
+     */
+    @DeleteMapping("/upload/{uploadId}")
+    public ResponseEntity<?> abortChunkedUpload(@PathVariable String uploadId) {
+        try {
+            chunkedUploadService.abortUpload(uploadId);
+            return ResponseEntity.noContent().build();
+
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * Download files by transfer ID
      */
     @GetMapping("/d/{transferId}")
-    public ResponseEntity<Resource> downloadFiles(
+    public ResponseEntity<StreamingResponseBody> downloadFiles(
             @PathVariable String transferId,
-            HttpServletRequest request) {
+            HttpServletRequest request,
+            HttpServletResponse response) {
         try {
-            System.out.println("📥 Download request for: " + transferId + " from " + getClientIp(request));
-
-            Resource file = storageService.loadFile(transferId);
-            String filename = file.getFilename();
-
-            // Determine content type
-            String contentType = filename.endsWith(".zip")
-                    ? "application/zip"
-                    : "application/octet-stream";
-
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + filename + "\"")
-                    .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                    .header(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
-                    .header(HttpHeaders.PRAGMA, "no-cache")
-                    .header(HttpHeaders.EXPIRES, "0")
-                    .header("X-Content-Type-Options", "nosniff")
-                    .body(file);
+            EventLog.info("download.request", "📥 Download request for: {} from {}", transferId, getClientIp(request));
+
+            TransferSession session = storageService.openDownload(transferId);
+
+            // Multiple files are zipped on the fly while the response is being written
+            if (session.getFileNames().size() > 1) {
+                HttpHeaders headers = downloadHeaders(session, storageService.getZipFileName(session), archiveTag(session));
+
+                // A hot transfer's finished archive is sent from memory like a single file
+                HotTransferCache.Entry hotArchive = storageService.hotArchive(session);
+                if (hotArchive != null) {
+                    FileResponseWriter.Sent sent = fileResponseWriter.write(hotArchive.path(), hotArchive,
+                            "application/zip", headers, request, response);
+                    if (sent != FileResponseWriter.Sent.NOTHING) {
+                        metrics.recordZipFirstByte(RequestStartFilter.startOf(request));
+                    }
+                    if (sent == FileResponseWriter.Sent.TO_END) {
+                        storageService.recordDownload(session);
+                    }
+                    return null;
+                }
+
+                if (fileResponseWriter.isNotModified(request, headers.getETag(), -1)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+                }
+
+                ResponseEntity.BodyBuilder zip = ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType("application/zip"))
+                        .headers(headers)
+                        .header(HttpHeaders.ACCEPT_RANGES, "none");
+                // Once the archive has been built its length is known up front
+                long zipSize = storageService.getZipSize(session);
+                if (zipSize >= 0) {
+                    zip.contentLength(zipSize);
+                }
+                if ("HEAD".equals(request.getMethod())) {
+                    return zip.build();
+                }
+
+                RateLimitFilter.countBytes(request, zipSize >= 0 ? zipSize : session.getTotalSize());
+                long requestStart = RequestStartFilter.startOf(request);
+                StreamingResponseBody body = out -> storageService.streamZip(session,
+                        metrics.timeZipFirstByte(countingDownload(out, session), requestStart));
+                return zip.body(body);
+            }
+
+            return writeFile(session, session.getFiles().get(0), request, response);
 
         } catch (Exception e) {
-            System.err.println("❌ Download failed: " + e.getMessage());
+            EventLog.warn("download.request", "❌ Download failed: {}", e.getMessage());
+            // Client went away mid-file: the status line is already on the wire
+            if (response.isCommitted()) {
+                return null;
+            }
             return ResponseEntity.notFound().build();
         }
     }
 
+    /**
+     * Download one file of a transfer by name, without building the ZIP archive
+     */
+    @GetMapping("/d/{transferId}/{fileName}")
+    public ResponseEntity<StreamingResponseBody> downloadFile(
+            @PathVariable String transferId,
+            @PathVariable String fileName,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return downloadMember(transferId, fileName, session -> session.getFile(fileName), request, response);
+    }
+
+    /**
+     * Download one file of a transfer by its position in fileNames, for names that are
+     * awkward in a URL
+     */
+    @GetMapping("/d/{transferId}/files/{index}")
+    public ResponseEntity<StreamingResponseBody> downloadFileAt(
+            @PathVariable String transferId,
+            @PathVariable int index,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return downloadMember(transferId, "#" + index, session ->
+                index >= 0 && index < session.getFiles().size() ? session.getFiles().get(index) : null,
+                request, response);
+    }
+
     /**
      * Get transfer information (without downloading)
      */
@@ -132,6 +399,7 @@ public class FileTransferController {
             info.put("transferId", session.getId());
             info.put("fileCount", session.getFileNames().size());
             info.put("fileNames", session.getFileNames());
+            info.put("files", fileDetails(session));
             info.put("totalSize", session.getTotalSize());
             info.put("downloadCount", session.getDownloadCount());
             info.put("expiresAt", LocalDateTime.ofInstant(
@@ -170,12 +438,220 @@ public class FileTransferController {
 
     // Helper methods
 
-    private String getClientIp(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isEmpty()) {
-            ip = request.getRemoteAddr();
+    private ResponseEntity<StreamingResponseBody> downloadMember(
+            String transferId,
+            String member,
+            Function<TransferSession, StoredFile> select,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        try {
+            EventLog.info("download.request", "📥 Download request for: {} ({}) from {}", transferId, member, getClientIp(request));
+
+            TransferSession session = storageService.openDownload(transferId);
+            StoredFile stored = select.apply(session);
+            if (stored == null) {
+                EventLog.info("download.rejected", "❌ File {} not found in transfer: {}", member, transferId);
+                return ResponseEntity.notFound().build();
+            }
+            return writeFile(session, stored, request, response);
+
+        } catch (Exception e) {
+            EventLog.warn("download.request", "❌ Download failed: {}", e.getMessage());
+            if (response.isCommitted()) {
+                return null;
+            }
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Writes one stored file of a transfer directly to the response, with Range support,
+     * from memory once the transfer is hot. Counts the download when the response
+     * reaches the end of the file: the whole file, or the rest of a resumed download,
+     * but not a probe like bytes=0-0.
+     */
+    private ResponseEntity<StreamingResponseBody> writeFile(
+            TransferSession session,
+            StoredFile stored,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        Path file = storageService.loadFile(session, stored);
+        String filename = stored.getName();
+
+        // Determine content type
+        String contentType = filename.endsWith(".zip")
+                ? "application/zip"
+                : "application/octet-stream";
+
+        HttpHeaders headers = downloadHeaders(session, filename, entityTag(stored));
+        if (stored.getSha256() != null) {
+            // RFC 9530: the digest of the whole file, whatever range is sent
+            headers.set(FileResponseWriter.REPR_DIGEST,
+                    "sha-256=:" + Base64.getEncoder().encodeToString(HexFormat.of().parseHex(stored.getSha256())) + ":");
+        }
+        HotTransferCache.Entry hot = storageService.hotFile(session, stored);
+        FileResponseWriter.Sent sent = GzipFile.ENCODING.equals(stored.getEncoding())
+                ? fileResponseWriter.writeGzip(file, hot, stored.getSize(), contentType, headers, request, response)
+                : fileResponseWriter.write(file, hot, contentType, headers, request, response);
+        if (sent != FileResponseWriter.Sent.NOTHING) {
+            // With sendfile this is the hand-off to the container, which writes right after
+            metrics.recordFileFirstByte(RequestStartFilter.startOf(request));
+        }
+        if (sent == FileResponseWriter.Sent.TO_END) {
+            storageService.recordDownload(session);
+        }
+        return null;
+    }
+
+    /**
+     * Counts the download when the first byte of the archive is written, so a request
+     * that never gets that far doesn't use up a transfer.
+     */
+    private OutputStream countingDownload(OutputStream out, TransferSession session) {
+        return new FilterOutputStream(out) {
+            private boolean counted;
+
+            @Override
+            public void write(int b) throws IOException {
+                count();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                count();
+                out.write(b, off, len);
+            }
+
+            private void count() {
+                if (!counted) {
+                    counted = true;
+                    storageService.recordDownload(session);
+                }
+            }
+        };
+    }
+
+    private Map<String, Object> uploadResponse(TransferSession session, HttpServletRequest request) {
+        // Generate download URL (use your actual IP or domain)
+        String baseUrl = getBaseUrl(request);
+        String downloadUrl = baseUrl + "/api/d/" + session.getId();
+
+        // Create response with transfer info
+        Map<String, Object> response = new HashMap<>();
+        response.put("url", downloadUrl);
+        response.put("transferId", session.getId());
+        response.put("fileCount", session.getFileNames().size());
+        response.put("files", fileDetails(session));
+        response.put("totalSize", session.getTotalSize());
+        response.put("expiresAt", LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(session.getExpiryTime()),
+                ZoneId.systemDefault()
+        ));
+        return response;
+    }
+
+    /**
+     * Name, size and checksums of each file, for clients to verify what they download.
+     * Checksums a file was stored without are left out.
+     */
+    private List<Map<String, Object>> fileDetails(TransferSession session) {
+        List<Map<String, Object>> details = new ArrayList<>();
+        for (StoredFile file : session.getFiles()) {
+            Map<String, Object> detail = new HashMap<>();
+            detail.put("name", file.getName());
+            detail.put("size", file.getSize());
+            if (file.getSha256() != null) {
+                detail.put("sha256", file.getSha256());
+            }
+            if (file.getCrc32() != null) {
+                detail.put("crc32", file.getCrc32());
+            }
+            details.add(detail);
         }
-        return ip;
+        return details;
+    }
+
+    private Map<String, Object> chunkedUploadStatus(ChunkedUpload upload, BitSet received) {
+        List<Map<String, Object>> files = new ArrayList<>();
+        for (int i = 0; i < upload.getFileNames().size(); i++) {
+            List<Integer> missing = new ArrayList<>();
+            for (int chunk = 0; chunk < upload.getChunkCount(i); chunk++) {
+                if (!received.get(upload.getFirstChunk(i) + chunk)) {
+                    missing.add(chunk);
+                }
+            }
+            Map<String, Object> file = new HashMap<>();
+            file.put("index", i);
+            file.put("name", upload.getFileNames().get(i));
+            file.put("size", upload.getFileSizes().get(i));
+            file.put("chunkCount", upload.getChunkCount(i));
+            file.put("linked", upload.getLinkedHash(i) != null);
+            file.put("missingChunks", missing);
+            files.add(file);
+        }
+
+        Map<String, Object> status = new HashMap<>();
+        status.put("uploadId", upload.getId());
+        status.put("chunkSize", upload.getChunkSize());
+        status.put("totalSize", upload.getTotalSize());
+        status.put("receivedChunks", received.cardinality());
+        status.put("totalChunks", upload.getTotalChunks());
+        status.put("files", files);
+        return status;
+    }
+
+    /**
+     * Transfer content never changes, so it may be cached: by default only by the
+     * browser, revalidating with the ETag on each use; with shazam.download.immutable
+     * by any cache until the transfer expires.
+     */
+    private HttpHeaders downloadHeaders(TransferSession session, String filename, String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        headers.set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        if (immutableDownloads) {
+            long maxAge = Math.max(0, (session.getExpiryTime() - System.currentTimeMillis()) / 1000);
+            headers.set(HttpHeaders.CACHE_CONTROL, "public, max-age=" + maxAge + ", immutable");
+        } else {
+            headers.set(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        }
+        if (etag != null) {
+            headers.setETag(etag);
+        }
+        headers.set("X-Content-Type-Options", "nosniff");
+        return headers;
+    }
+
+    /**
+     * Strong entity tag of a stored file: its content hash, or null for files recorded
+     * without one.
+     */
+    private static String entityTag(StoredFile file) {
+        return file.getSha256() != null ? "\"" + file.getSha256() + "\"" : null;
+    }
+
+    /**
+     * Weak entity tag of a transfer's ZIP archive, from its files' names, hashes and
+     * encodings at rest. An archive built again holds the same files, but its bytes
+     * also follow the files' modification times and the writer's settings, so the tag
+     * revalidates a download (If-None-Match) but can't resume one (If-Range).
+     */
+    private static String archiveTag(TransferSession session) {
+        MessageDigest digest = BlobStore.newDigest();
+        for (StoredFile file : session.getFiles()) {
+            if (file.getSha256() == null) {
+                return null;
+            }
+            digest.update((file.getName() + "\0" + file.getSha256() + "\0" + file.getEncoding() + "\0")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return "W/\"zip-" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+    }
+
+    private String getClientIp(HttpServletRequest request) {
+        // Behind a trusted proxy the container has already taken it from X-Forwarded-For
+        return request.getRemoteAddr();
     }
 
     private String getBaseUrl(HttpServletRequest request) {
@@ -2,7 +2,9 @@ package com.sameerbasha1.shazam.controller;
 
 import com.sameerbasha1.shazam.model.PromptRequest;
 import com.sameerbasha1.shazam.model.PromptResponse;
+import com.sameerbasha1.shazam.service.EventLog;
 import com.sameerbasha1.shazam.service.PromptRefinerService;
+import com.sameerbasha1.shazam.service.TransferMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -24,13 +26,16 @@ public class PromptRefinerController {
     @Autowired
     private PromptRefinerService refinerService;
 
+    @Autowired
+    private TransferMetrics metrics;
+
     /**
      * Refine a user's prompt
      */
     @PostMapping("/refine")
     public ResponseEntity<?> refinePrompt(@RequestBody PromptRequest request) {
         try {
-            System.out.println("📝 Received prompt refinement request");
+            EventLog.debug("refine.request", "📝 Received prompt refinement request");
 
             // Validate input
             if (request.getPrompt() == null || request.getPrompt().trim().isEmpty()) {
@@ -39,20 +44,21 @@ public class PromptRefinerController {
             }
 
             // Refine the prompt
+            long start = System.nanoTime();
             PromptResponse response = refinerService.refinePrompt(request.getPrompt());
+            metrics.recordRefinement(System.nanoTime() - start);
 
-            System.out.println("✅ Prompt refined successfully");
+            EventLog.debug("refine.request", "✅ Prompt refined successfully");
 
             return ResponseEntity.ok(response);
 
         } catch (IllegalArgumentException e) {
-            System.err.println("❌ Invalid input: " + e.getMessage());
+            EventLog.warn("refine.request", "❌ Invalid input: {}", e.getMessage());
             return ResponseEntity.badRequest()
                     .body(Map.of("error", e.getMessage()));
 
         } catch (Exception e) {
-            System.err.println("❌ Refinement failed: " + e.getMessage());
-            e.printStackTrace();
+            EventLog.error("refine.request", e, "❌ Refinement failed: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", "Failed to refine prompt: " + e.getMessage()));
         }
@@ -0,0 +1,162 @@
+package com.sameerbasha1.shazam.model;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An upload that arrives in fixed-size chunks, possibly out of order and in parallel.
+ * Chunks of all files share one index space: file i owns the indexes starting at
+ * getFirstChunk(i). Which chunks have arrived is tracked on disk by the service.
+ *
+ * A file whose content the server already had is linked in at the start; its hash is
+ * kept in linkedHashes and it takes no chunks from the client.
+ *
+ * Chunk writes and completion in this process exclude each other through beginWrite
+ * and beginCompletion, so no chunk can land in a file after it has been hashed (the
+ * service locks out other processes on top of that). Files completion has already
+ * hashed (and maybe compressed) are kept as settled, so a completion that is retried
+ * doesn't process them a second time.
+ */
+public class ChunkedUpload {
+    private final String id;
+    private final Path path;
+    private final List<String> fileNames;
+    private final List<Long> fileSizes;
+    private final List<String> linkedHashes;
+    private final long chunkSize;
+    private final long createdAt;
+    private final String uploaderIp;
+    private final int[] firstChunk;
+    private final int totalChunks;
+    private final StoredFile[] settled;
+    private int writers;
+    private boolean completing;
+
+    public ChunkedUpload(String id, Path path, List<String> fileNames, List<Long> fileSizes,
+                         List<String> linkedHashes, long chunkSize, long createdAt, String uploaderIp) {
+        this.id = id;
+        this.path = path;
+        this.fileNames = List.copyOf(fileNames);
+        this.fileSizes = List.copyOf(fileSizes);
+        // Entries are null for files the client sends
+        this.linkedHashes = Collections.unmodifiableList(new ArrayList<>(linkedHashes));
+        this.chunkSize = chunkSize;
+        this.createdAt = createdAt;
+        this.uploaderIp = uploaderIp;
+
+        this.firstChunk = new int[fileNames.size()];
+        int chunks = 0;
+        for (int i = 0; i < fileNames.size(); i++) {
+            firstChunk[i] = chunks;
+            chunks += chunkCount(fileSizes.get(i), chunkSize);
+        }
+        this.totalChunks = chunks;
+        this.settled = new StoredFile[fileNames.size()];
+    }
+
+    public int getChunkCount(int fileIndex) {
+        return chunkCount(fileSizes.get(fileIndex), chunkSize);
+    }
+
+    private static int chunkCount(long size, long chunkSize) {
+        // An empty file still takes one (empty) chunk so it can be confirmed
+        return size == 0 ? 1 : (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    public long getChunkLength(int fileIndex, int chunk) {
+        long offset = chunk * chunkSize;
+        return Math.min(chunkSize, fileSizes.get(fileIndex) - offset);
+    }
+
+    public String getLinkedHash(int fileIndex) {
+        return linkedHashes.get(fileIndex);
+    }
+
+    /**
+     * The file as completion stored it, or null if it hasn't got to it.
+     */
+    public synchronized StoredFile getSettled(int fileIndex) {
+        return settled[fileIndex];
+    }
+
+    public synchronized void setSettled(int fileIndex, StoredFile file) {
+        settled[fileIndex] = file;
+    }
+
+    public int getFirstChunk(int fileIndex) {
+        return firstChunk[fileIndex];
+    }
+
+    /**
+     * Registers a chunk write, unless the upload is being completed. Pair with endWrite.
+     */
+    public synchronized boolean beginWrite() {
+        if (completing) {
+            return false;
+        }
+        writers++;
+        return true;
+    }
+
+    public synchronized void endWrite() {
+        writers--;
+    }
+
+    /**
+     * Claims the upload for completion: false if it already is claimed or a chunk is
+     * still being written. From here on beginWrite refuses.
+     */
+    public synchronized boolean beginCompletion() {
+        if (completing || writers > 0) {
+            return false;
+        }
+        completing = true;
+        return true;
+    }
+
+    /**
+     * Gives up a claim from beginCompletion that failed, so completion can be retried.
+     */
+    public synchronized void abandonCompletion() {
+        completing = false;
+    }
+
+    public long getTotalSize() {
+        return fileSizes.stream().mapToLong(Long::longValue).sum();
+    }
+
+    // Getters
+    public String getId() {
+        return id;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<String> getFileNames() {
+        return fileNames;
+    }
+
+    public List<Long> getFileSizes() {
+        return fileSizes;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getUploaderIp() {
+        return uploaderIp;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+}
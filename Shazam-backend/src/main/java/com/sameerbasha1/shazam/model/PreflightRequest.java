@@ -0,0 +1,15 @@
+package com.sameerbasha1.shazam.model;
+
+import java.util.List;
+
+public class PreflightRequest {
+    // SHA-256 (hex) of each file the client is about to upload
+    private List<String> hashes;
+
+    public PreflightRequest() {
+    }
+
+    // Getters and Setters
+    public List<String> getHashes() { return hashes; }
+    public void setHashes(List<String> hashes) { this.hashes = hashes; }
+}
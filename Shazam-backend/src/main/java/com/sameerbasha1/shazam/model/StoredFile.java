@@ -0,0 +1,53 @@
+package com.sameerbasha1.shazam.model;
+
+/**
+ * One file of a transfer. The hash names the blob the file is linked to; it is null
+ * for files stored before content addressing was introduced. Size and checksums are
+ * those of the original content; the CRC32 (hex) is null for files stored before it
+ * was recorded. The encoding is how it is kept on disk ("gzip"), or null if it is
+ * kept as uploaded.
+ */
+public class StoredFile {
+    private final String name;
+    private final long size;
+    private final String sha256;
+    private final String encoding;
+    private final String crc32;
+
+    public StoredFile(String name, long size, String sha256) {
+        this(name, size, sha256, null);
+    }
+
+    public StoredFile(String name, long size, String sha256, String encoding) {
+        this(name, size, sha256, encoding, null);
+    }
+
+    public StoredFile(String name, long size, String sha256, String encoding, String crc32) {
+        this.name = name;
+        this.size = size;
+        this.sha256 = sha256;
+        this.encoding = encoding;
+        this.crc32 = crc32;
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public String getCrc32() {
+        return crc32;
+    }
+}
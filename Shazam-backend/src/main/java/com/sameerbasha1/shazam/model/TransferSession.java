@@ -1,38 +1,119 @@
 package com.sameerbasha1.shazam.model;
 
 import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class TransferSession {
+    // Recent downloads are counted in 10-second buckets, six of which make up the last minute
+    private static final long RECENT_BUCKET_MS = 10_000;
+    private static final int RECENT_BUCKETS = 6;
+    // Each bucket holds (bucket number << RECENT_COUNT_BITS) | downloads counted in it
+    private static final int RECENT_COUNT_BITS = 20;
+    private static final long RECENT_COUNT_MAX = (1L << RECENT_COUNT_BITS) - 1;
+
     private String id;
     private Path path;
+    private List<StoredFile> files;
     private List<String> fileNames;
     private long expiryTime;
-    private int downloadCount;
-    private LocalDateTime createdAt;
-    private LocalDateTime lastAccessedAt;
+    // Download count, with the sign bit set once the session has been retired
+    private final AtomicInteger downloadState = new AtomicInteger();
+    // Epoch millis; LocalDateTime is only built when asked for
+    private long createdAt;
+    private volatile long lastAccessedAt;
     private String uploaderIp;
     private long totalSize;
+    // Downloads in the last minute, for spotting transfers that go viral
+    private final AtomicLongArray recentDownloads = new AtomicLongArray(RECENT_BUCKETS);
+
+    public TransferSession(String id, Path path, List<StoredFile> files, long expiryTime) {
+        this(id, path, files, expiryTime, System.currentTimeMillis(), 0);
+    }
 
-    public TransferSession(String id, Path path, List<String> fileNames, long expiryTime) {
+    /**
+     * Restores a session recorded before a restart.
+     */
+    public TransferSession(String id, Path path, List<StoredFile> files, long expiryTime,
+                           long createdAt, int downloadCount) {
         this.id = id;
         this.path = path;
-        this.fileNames = fileNames;
+        this.files = List.copyOf(files);
+        this.fileNames = files.stream().map(StoredFile::getName).toList();
         this.expiryTime = expiryTime;
-        this.downloadCount = 0;
-        this.createdAt = LocalDateTime.now();
-        this.lastAccessedAt = LocalDateTime.now();
-        this.totalSize = 0;
+        this.downloadState.set(downloadCount);
+        this.createdAt = createdAt;
+        this.lastAccessedAt = createdAt;
+        this.totalSize = files.stream().mapToLong(StoredFile::getSize).sum();
+    }
+
+    /**
+     * A copy of this session for its files having moved to path.
+     */
+    public TransferSession withPath(Path path) {
+        TransferSession moved = new TransferSession(id, path, files, expiryTime, createdAt, getDownloadCount());
+        moved.setUploaderIp(uploaderIp);
+        return moved;
     }
 
     public boolean isExpired() {
         return System.currentTimeMillis() > expiryTime;
     }
 
-    public void incrementDownloadCount() {
-        this.downloadCount++;
-        this.lastAccessedAt = LocalDateTime.now();
+    /**
+     * Counts a download and returns the new count, or -1 if the session was already
+     * retired and the download no longer counts.
+     */
+    public int incrementDownloadCount() {
+        int previous = downloadState.getAndUpdate(state -> state < 0 ? state : state + 1);
+        if (previous < 0) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        this.lastAccessedAt = now;
+        countRecent(now);
+        return previous + 1;
+    }
+
+    private void countRecent(long now) {
+        long bucket = now / RECENT_BUCKET_MS;
+        int slot = (int) (bucket % RECENT_BUCKETS);
+        // A slot still holding an older bucket starts over at this one
+        recentDownloads.getAndUpdate(slot, state -> state >>> RECENT_COUNT_BITS != bucket
+                ? bucket << RECENT_COUNT_BITS | 1
+                : (state & RECENT_COUNT_MAX) == RECENT_COUNT_MAX ? state : state + 1);
+    }
+
+    /**
+     * Downloads counted in the last minute or so.
+     */
+    public int getRecentDownloads() {
+        long bucket = System.currentTimeMillis() / RECENT_BUCKET_MS;
+        int downloads = 0;
+        for (int slot = 0; slot < RECENT_BUCKETS; slot++) {
+            long state = recentDownloads.get(slot);
+            if (bucket - (state >>> RECENT_COUNT_BITS) < RECENT_BUCKETS) {
+                downloads += (int) (state & RECENT_COUNT_MAX);
+            }
+        }
+        return downloads;
+    }
+
+    /**
+     * Stops counting downloads and returns the final count. Returns -1 if the session
+     * was already retired.
+     */
+    public int retire() {
+        int previous = downloadState.getAndUpdate(state -> state | Integer.MIN_VALUE);
+        return previous < 0 ? -1 : previous;
+    }
+
+    public boolean isRetired() {
+        return downloadState.get() < 0;
     }
 
     public boolean canDownload() {
@@ -50,24 +131,62 @@ public class TransferSession {
         return path;
     }
 
+    public List<StoredFile> getFiles() {
+        return files;
+    }
+
     public List<String> getFileNames() {
         return fileNames;
     }
 
+    /**
+     * The file with the given name, or null if the transfer has none.
+     */
+    public StoredFile getFile(String name) {
+        for (StoredFile file : files) {
+            if (file.getName().equals(name)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
     public long getExpiryTime() {
         return expiryTime;
     }
 
     public int getDownloadCount() {
-        return downloadCount;
+        return downloadState.get() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Adds downloads counted elsewhere (another process) and returns how many were
+     * added: none once the session has been retired.
+     */
+    public int addDownloads(int downloads) {
+        int previous = downloadState.getAndUpdate(state -> state < 0 ? state : state + downloads);
+        return previous < 0 ? 0 : downloads;
+    }
+
+    /**
+     * Raises the count to downloadCount if it is lower, for a compacted journal that carries a total,
+     * and returns by how much it went up.
+     */
+    public int raiseDownloadCount(int downloadCount) {
+        int previous = downloadState.getAndUpdate(state -> state < 0 || state >= downloadCount ? state : downloadCount);
+        return previous < 0 || previous >= downloadCount ? 0 : downloadCount - previous;
     }
 
     public LocalDateTime getCreatedAt() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(createdAt), ZoneId.systemDefault());
+    }
+
+    public long getCreatedAtMillis() {
         return createdAt;
     }
 
     public LocalDateTime getLastAccessedAt() {
-        return lastAccessedAt;
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(lastAccessedAt), ZoneId.systemDefault());
     }
 
     public void setUploaderIp(String uploaderIp) {
@@ -78,10 +197,6 @@ public class TransferSession {
         return uploaderIp;
     }
 
-    public void setTotalSize(long totalSize) {
-        this.totalSize = totalSize;
-    }
-
     public long getTotalSize() {
         return totalSize;
     }
@@ -0,0 +1,47 @@
+package com.sameerbasha1.shazam.model;
+
+import java.util.List;
+
+public class UploadInitRequest {
+    private List<FileSpec> files;
+    private Long chunkSize;
+
+    public UploadInitRequest() {
+    }
+
+    // Getters and Setters
+    public List<FileSpec> getFiles() { return files; }
+    public void setFiles(List<FileSpec> files) { this.files = files; }
+
+    public Long getChunkSize() { return chunkSize; }
+    public void setChunkSize(Long chunkSize) { this.chunkSize = chunkSize; }
+
+    public static class FileSpec {
+        private String name;
+        private long size;
+        // Optional; if the server already has this content and the proof (from preflight)
+        // shows the client has it too, the file is not uploaded
+        private String sha256;
+        private String proof;
+
+        public FileSpec() {
+        }
+
+        public FileSpec(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+
+        public String getSha256() { return sha256; }
+        public void setSha256(String sha256) { this.sha256 = sha256; }
+
+        public String getProof() { return proof; }
+        public void setProof(String proof) { this.proof = proof; }
+    }
+}
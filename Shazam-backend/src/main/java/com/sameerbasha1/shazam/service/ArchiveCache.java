@@ -0,0 +1,314 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.TransferSession;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ZIP archives of multi-file transfers, built once and kept next to the uploads in
+ * uploads/.archives/<transferId>.zip.
+ *
+ * The first download of a transfer starts a single build on a background thread,
+ * which writes to a temp file that is renamed into place when it is complete, so a
+ * finished archive is never seen half-written. Every download that arrives while the
+ * build is running - the first one included - tails the temp file as it grows, so a
+ * slow client never holds up the build or the other clients. Later downloads send the
+ * finished file.
+ */
+public class ArchiveCache {
+
+    public interface ArchiveWriter {
+        void write(TransferSession session, OutputStream out) throws IOException;
+    }
+
+    private static final String SUFFIX = ".zip";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // A build keeps writing its temp file; one left alone this long was cut off
+    private static final long STALE_TEMP_MS = 10 * 60 * 1000;
+
+    private final Path dir;
+    private final ArchiveWriter writer;
+    private final ExecutorService builders;
+    private final Map<String, Build> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    public ArchiveCache(Path dir, ArchiveWriter writer, ExecutorService builders) throws IOException {
+        this.dir = dir;
+        this.writer = writer;
+        this.builders = builders;
+        Files.createDirectories(dir);
+
+        // Builds interrupted by a restart start over. Other processes sharing the
+        // directory may be building right now, so only stale temp files are removed
+        long cutoff = System.currentTimeMillis() - STALE_TEMP_MS;
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(dir, "*" + TEMP_SUFFIX)) {
+            for (Path file : leftovers) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Finished (or removed) by its builder meanwhile
+                }
+            }
+        }
+    }
+
+    /**
+     * Size of the finished archive, or -1 if it hasn't been built yet.
+     */
+    public long size(String transferId) {
+        try {
+            return Files.size(archivePath(transferId));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Where the transfer's archive is kept once it has been built.
+     */
+    public Path archivePath(String transferId) {
+        return dir.resolve(transferId + SUFFIX);
+    }
+
+    /**
+     * Writes the transfer's archive to out, building it first if nobody has yet.
+     */
+    public void stream(TransferSession session, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel archive = FileChannel.open(archivePath(session.getId()), StandardOpenOption.READ)) {
+            hits.incrementAndGet();
+            send(archive, 0, archive.size(), target);
+            return;
+        } catch (NoSuchFileException e) {
+            // Not built yet
+        }
+
+        Build build = inFlight.computeIfAbsent(session.getId(), id -> start(session));
+        if (build.owner != Thread.currentThread()) {
+            coalesced.incrementAndGet();
+        }
+        build.tail(target);
+    }
+
+    /**
+     * Keeps a build still running for the transfer from publishing its archive, and
+     * returns the path of the finished archive for the caller to delete.
+     */
+    public Path evict(String transferId) {
+        Build build = inFlight.get(transferId);
+        if (build != null) {
+            build.cancelled = true;
+        }
+        return archivePath(transferId);
+    }
+
+    /**
+     * Finished archives whose transfer is not in the given set.
+     */
+    public Set<Path> orphans(Set<String> transferIds) throws IOException {
+        Set<Path> orphans = new HashSet<>();
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path archive : archives) {
+                String name = archive.getFileName().toString();
+                if (!transferIds.contains(name.substring(0, name.length() - SUFFIX.length()))) {
+                    orphans.add(archive);
+                }
+            }
+        }
+        return orphans;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("building", inFlight.size());
+        metrics.put("builds", builds.get());
+        metrics.put("coalescedDownloads", coalesced.get());
+        metrics.put("hits", hits.get());
+        return metrics;
+    }
+
+    private Build start(TransferSession session) {
+        Path temp = dir.resolve(session.getId() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        Build build = new Build(session.getId(), temp);
+        builds.incrementAndGet();
+        try {
+            builders.execute(() -> build.run(session));
+        } catch (RejectedExecutionException e) {
+            build.fail(new IOException("Shutting down"));
+            inFlight.remove(session.getId(), build);
+        }
+        return build;
+    }
+
+    private static void send(FileChannel source, long position, long end, WritableByteChannel target) throws IOException {
+        while (position < end) {
+            long sent = source.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                throw new IOException("Archive truncated at offset " + position);
+            }
+            position += sent;
+        }
+    }
+
+    /**
+     * One running archive build, with the length written so far for tailing readers.
+     */
+    private final class Build {
+        private final String transferId;
+        private final Path temp;
+        private final Thread owner = Thread.currentThread();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition progress = lock.newCondition();
+        private long written;
+        private boolean done;
+        private IOException failure;
+        private volatile boolean cancelled;
+
+        Build(String transferId, Path temp) {
+            this.transferId = transferId;
+            this.temp = temp;
+        }
+
+        void run(TransferSession session) {
+            try {
+                try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+                    writer.write(session, new FilterOutputStream(file) {
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            out.write(b, off, len);
+                            advance(len);
+                        }
+
+                        @Override
+                        public void write(int b) throws IOException {
+                            out.write(b);
+                            advance(1);
+                        }
+                    });
+                    // Durable before it is published under its final name
+                    file.getFD().sync();
+                }
+                if (cancelled) {
+                    Files.deleteIfExists(temp);
+                } else {
+                    Files.move(temp, archivePath(transferId), StandardCopyOption.ATOMIC_MOVE);
+                }
+                finish(null);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+                finish(e instanceof IOException io ? io : new IOException(e));
+                EventLog.error("download.zip", "❌ Building archive for {} failed: {}", transferId, e.getMessage());
+            } finally {
+                inFlight.remove(transferId, this);
+            }
+        }
+
+        void fail(IOException e) {
+            finish(e);
+        }
+
+        private void advance(long bytes) {
+            lock.lock();
+            try {
+                written += bytes;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void finish(IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+                done = true;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sends the archive as it is written and returns once all of it is sent.
+         */
+        void tail(WritableByteChannel target) throws IOException {
+            FileChannel source = null;
+            try {
+                long position = 0;
+                while (true) {
+                    long available;
+                    boolean complete;
+                    lock.lock();
+                    try {
+                        while (written == position && !done) {
+                            progress.await();
+                        }
+                        if (failure != null) {
+                            throw new IOException("Archive build failed", failure);
+                        }
+                        available = written;
+                        complete = done;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the archive");
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    if (available > position) {
+                        if (source == null) {
+                            source = open();
+                        }
+                        send(source, position, available, target);
+                        position = available;
+                    }
+                    if (complete && position == available) {
+                        return;
+                    }
+                }
+            } finally {
+                if (source != null) {
+                    source.close();
+                }
+            }
+        }
+
+        /**
+         * The temp file, or the finished archive if it has been renamed in the meantime.
+         */
+        private FileChannel open() throws IOException {
+            try {
+                return FileChannel.open(temp, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return FileChannel.open(archivePath(transferId), StandardOpenOption.READ);
+            }
+        }
+    }
+}
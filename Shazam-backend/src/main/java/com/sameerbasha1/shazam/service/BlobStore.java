@@ -0,0 +1,385 @@
+package com.sameerbasha1.shazam.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Content-addressed store for uploaded files under uploads/.blobs/ab/<sha256>.
+ *
+ * Every file of a transfer is a hard link to its blob, so identical content is kept
+ * on disk once however many transfers contain it. The link count is the reference
+ * count: deleting a transfer only drops its links, and a blob whose only remaining
+ * link is the store's own is collected once it has been unreferenced for a while.
+ * Content kept gzip-compressed at rest is a separate blob, <sha256>.gz, still named by
+ * the hash of the original content. A blob's CRC32 is kept with it, in a user extended
+ * attribute, so content linked into a transfer isn't read to describe it.
+ *
+ * On filesystems without hard links the store is switched off and files are hashed
+ * but kept as plain copies in their transfer directories.
+ */
+@Service
+public class BlobStore {
+
+    private static final String BLOB_DIR = ".blobs";
+    private static final String TEMP_DIR = "tmp";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern CRC32 = Pattern.compile("[0-9a-f]{8}");
+    private static final String CRC32_ATTRIBUTE = "shazam.crc32";
+
+    // A blob must have been unreferenced this long before it is collected
+    private static final long COLLECT_GRACE_MS = 60 * 60 * 1000; // 1 hour
+    private static final long COLLECT_INTERVAL_MS = 10 * 60 * 1000; // 10 minutes
+
+    @Value("${shazam.storage.upload-dir:uploads}")
+    private Path uploadDir;
+
+    @Value("${shazam.storage.dedup:true}")
+    private boolean dedup;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    private Path blobDir;
+    private Path tempDir;
+    private boolean enabled;
+    private ScheduledExecutorService collector;
+
+    private final LongAdder dedupHits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder blobsCollected = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        try {
+            blobDir = uploadDir.resolve(BLOB_DIR);
+            tempDir = blobDir.resolve(TEMP_DIR);
+            Files.createDirectories(tempDir);
+            clearTemp();
+
+            enabled = dedup && supportsHardLinks();
+            EventLog.info("blobs", enabled
+                    ? "🔗 Deduplicating uploads in {}"
+                    : "🔗 Upload deduplication is off", blobDir);
+
+            if (enabled) {
+                collector = Executors.newSingleThreadScheduledExecutor(
+                        FileStorageService.daemonThreads("blob-collector", virtualThreads));
+                collector.scheduleWithFixedDelay(this::collectUnreferenced,
+                        COLLECT_INTERVAL_MS, COLLECT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create blob directory", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (collector != null) {
+            collector.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isValidHash(String sha256) {
+        return sha256 != null && SHA256.matcher(sha256).matches();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean contains(String sha256) {
+        return enabled && isValidHash(sha256)
+                && (Files.exists(blobPath(sha256, null)) || Files.exists(blobPath(sha256, GzipFile.ENCODING)));
+    }
+
+    /**
+     * Size of the original content of a stored blob, or -1 if there is no such blob.
+     */
+    public long size(String sha256) {
+        if (!contains(sha256)) {
+            return -1;
+        }
+        try {
+            Path blob = blobPath(sha256, null);
+            if (Files.exists(blob)) {
+                return Files.size(blob);
+            }
+            return GzipFile.read(blobPath(sha256, GzipFile.ENCODING)).originalSize();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Opens the original content of a stored blob, inflating it if it is kept compressed.
+     */
+    public InputStream openContent(String sha256) throws IOException {
+        if (contains(sha256)) {
+            try {
+                return Files.newInputStream(blobPath(sha256, null));
+            } catch (NoSuchFileException e) {
+                try {
+                    return new GZIPInputStream(Files.newInputStream(blobPath(sha256, GzipFile.ENCODING)), 64 * 1024);
+                } catch (NoSuchFileException collected) {
+                    // Collected in between
+                }
+            }
+        }
+        throw new FileNotFoundException("Unknown content: " + sha256);
+    }
+
+    /**
+     * Makes target a link to an existing blob and returns the blob's encoding: "gzip",
+     * or null if it is kept as uploaded, which is preferred when there are both.
+     */
+    public String link(String sha256, Path target) throws IOException {
+        if (!contains(sha256)) {
+            throw new FileNotFoundException("Unknown content: " + sha256);
+        }
+        String encoding = Files.exists(blobPath(sha256, null)) ? null : GzipFile.ENCODING;
+        Files.createLink(target, blobPath(sha256, encoding));
+        dedupHits.increment();
+        bytesSaved.add(Files.size(target));
+        return encoding;
+    }
+
+    /**
+     * The encoding of the blob a file was linked to, as link() returned it.
+     */
+    public String encodingOf(String sha256, Path file) throws IOException {
+        Path gzip = blobPath(sha256, GzipFile.ENCODING);
+        return Files.exists(gzip) && Files.isSameFile(file, gzip) ? GzipFile.ENCODING : null;
+    }
+
+    /**
+     * Puts a file that has just been written into a transfer under content addressing
+     * and returns its hash. If the content is already stored, the file is replaced by
+     * a link to the existing blob; otherwise it becomes the blob. Pass the hash if it
+     * was computed while the file was written, or null to hash the file now.
+     */
+    public String share(Path file, String sha256) throws IOException {
+        return share(file, sha256, null, null);
+    }
+
+    /**
+     * Shares a file kept in the given encoding ("gzip"); sha256 is the hash of the
+     * original content, which can't be computed from the file. A crc32 (hex) is
+     * recorded on the blob if the file becomes it.
+     */
+    public String share(Path file, String sha256, String encoding, String crc32) throws IOException {
+        if (sha256 == null) {
+            sha256 = hash(file).sha256();
+        }
+        if (!enabled) {
+            return sha256;
+        }
+
+        Path blob = blobPath(sha256, encoding);
+        Files.createDirectories(blob.getParent());
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Files.createLink(blob, file);
+                if (crc32 != null) {
+                    writeCrc32(blob, crc32);
+                }
+                return sha256;
+            } catch (FileAlreadyExistsException e) {
+                try {
+                    replaceWithLink(file, blob);
+                    return sha256;
+                } catch (NoSuchFileException collected) {
+                    // The blob was collected in between; publish ours instead
+                    if (attempt > 0) {
+                        throw collected;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Seen before: swaps the freshly written copy for a link to the stored blob.
+     */
+    private void replaceWithLink(Path file, Path blob) throws IOException {
+        Path link = file.resolveSibling(file.getFileName() + ".link");
+        Files.deleteIfExists(link);
+        Files.createLink(link, blob);
+        Files.move(link, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        dedupHits.increment();
+        bytesSaved.add(Files.size(file));
+    }
+
+    /**
+     * Reads a file that was written without being hashed, such as a renamed multipart
+     * part, for both of its checksums at once.
+     */
+    public ContentHash hash(Path file) throws IOException {
+        ContentHash hash = new ContentHash();
+        read(file, hash::update);
+        return hash;
+    }
+
+    /**
+     * CRC32 of a file kept as uploaded, for content linked rather than received: the
+     * one recorded on its blob, or, for blobs stored before it was, read from the
+     * content once and then recorded.
+     */
+    public String crc32(Path file) throws IOException {
+        String recorded = readCrc32(file);
+        if (recorded != null) {
+            return recorded;
+        }
+        CRC32 crc = new CRC32();
+        read(file, crc::update);
+        String crc32 = ContentHash.hex(crc.getValue());
+        writeCrc32(file, crc32);
+        return crc32;
+    }
+
+    private static String readCrc32(Path file) {
+        try {
+            UserDefinedFileAttributeView attributes = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            if (attributes == null || !attributes.list().contains(CRC32_ATTRIBUTE)) {
+                return null;
+            }
+            ByteBuffer value = ByteBuffer.allocate(attributes.size(CRC32_ATTRIBUTE));
+            attributes.read(CRC32_ATTRIBUTE, value);
+            String crc32 = new String(value.array(), 0, value.position(), StandardCharsets.US_ASCII);
+            return CRC32.matcher(crc32).matches() ? crc32 : null;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static void writeCrc32(Path file, String crc32) {
+        try {
+            UserDefinedFileAttributeView attributes = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            if (attributes != null) {
+                attributes.write(CRC32_ATTRIBUTE, StandardCharsets.US_ASCII.encode(crc32));
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // No user attributes on this filesystem: the CRC is read from the content when needed
+        }
+    }
+
+    private void read(Path file, Consumer<ByteBuffer> consumer) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                consumer.accept(buffer);
+                buffer.clear();
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("dedupHits", dedupHits.sum());
+        metrics.put("bytesSaved", bytesSaved.sum());
+        metrics.put("blobsCollected", blobsCollected.sum());
+        return metrics;
+    }
+
+    private Path blobPath(String sha256, String encoding) {
+        String name = GzipFile.ENCODING.equals(encoding) ? sha256 + GZIP_SUFFIX : sha256;
+        return blobDir.resolve(sha256.substring(0, 2)).resolve(name);
+    }
+
+    /**
+     * Deletes blobs no transfer links to any more. Removing the last transfer link
+     * updates the blob's ctime, which is what the grace period is measured from.
+     */
+    private void collectUnreferenced() {
+        long cutoff = System.currentTimeMillis() - COLLECT_GRACE_MS;
+
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(blobDir)) {
+            for (Path prefix : prefixes) {
+                if (prefix.getFileName().toString().equals(TEMP_DIR) || !Files.isDirectory(prefix)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> blobs = Files.newDirectoryStream(prefix)) {
+                    for (Path blob : blobs) {
+                        int links = (Integer) Files.getAttribute(blob, "unix:nlink");
+                        FileTime changed = (FileTime) Files.getAttribute(blob, "unix:ctime");
+                        if (links == 1 && changed.toMillis() < cutoff) {
+                            // A link made after the check still holds the data; only dedup is lost
+                            Files.deleteIfExists(blob);
+                            blobsCollected.increment();
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            EventLog.error("blobs", "❌ Blob collection failed: {}", e.getMessage());
+        }
+    }
+
+    private boolean supportsHardLinks() {
+        Path probe = tempDir.resolve("probe");
+        Path link = tempDir.resolve("probe.link");
+        try {
+            Files.deleteIfExists(link);
+            Files.deleteIfExists(probe);
+            Files.createFile(probe);
+            Files.createLink(link, probe);
+            Files.getAttribute(probe, "unix:nlink");
+            return true;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(link);
+                Files.deleteIfExists(probe);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void clearTemp() throws IOException {
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(tempDir)) {
+            for (Path file : leftovers) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.sameerbasha1.shazam.service;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small pool of direct buffers for copying request bodies into files, so uploads
+ * don't allocate (and the JDK doesn't bounce through) a fresh buffer per copy.
+ */
+@Component
+public class BufferPool {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_POOLED = 64;
+
+    private final ArrayBlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        // Anything beyond the pool size is left to the GC
+        pool.offer(buffer);
+    }
+
+    /**
+     * Copies the whole source into the file starting at the given position and
+     * returns the number of bytes written.
+     */
+    public long copy(ReadableByteChannel source, FileChannel target, long position) throws IOException {
+        return copy(source, target, position, null);
+    }
+
+    /**
+     * Same as above, also feeding every byte to hash on the way through.
+     */
+    public long copy(ReadableByteChannel source, FileChannel target, long position,
+                     ContentHash hash) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            long written = 0;
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                if (hash != null) {
+                    hash.update(buffer);
+                }
+                while (buffer.hasRemaining()) {
+                    written += target.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+            return written;
+        } finally {
+            release(buffer);
+        }
+    }
+}
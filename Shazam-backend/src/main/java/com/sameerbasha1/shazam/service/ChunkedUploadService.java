@@ -0,0 +1,558 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.ChunkedUpload;
+import com.sameerbasha1.shazam.model.StoredFile;
+import com.sameerbasha1.shazam.model.TransferSession;
+import com.sameerbasha1.shazam.model.UploadInitRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads: a client declares its files, sends fixed-size chunks in any order
+ * (and in parallel), then commits. Each chunk is written at its offset in a sparse,
+ * pre-sized target file under uploads/.chunks/<uploadId>.
+ *
+ * The manifest and a one-byte-per-chunk bitmap are kept on disk beside the data, in
+ * uploads/.chunks/<uploadId>.meta, so which chunks have arrived survives a restart and
+ * a client can ask what is still missing. They live apart from the upload's files so
+ * that no file name a client declares can collide with them.
+ *
+ * Processes sharing the upload directory may each receive chunks of the same upload.
+ * Besides ChunkedUpload's own exclusion within this process, each chunk write holds a
+ * shared lock on its chunk's byte of a lock file in the metadata directory, and
+ * completion and abort try for an exclusive lock on all of it.
+ * Files declared with a hash the blob store already knows, and a proof that the client
+ * has that content (see ContentProof), are linked in right away and their chunks
+ * count as received.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final String STAGING_DIR = ".chunks";
+    private static final String META_SUFFIX = ".meta";
+    private static final String MANIFEST_FILE = "upload.properties";
+    private static final String BITMAP_FILE = "chunks.bitmap";
+    private static final String LOCK_FILE = "upload.lock";
+
+    private static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long MIN_CHUNK_SIZE = 256 * 1024;
+    private static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final long MAX_UPLOAD_SIZE = 20L * 1024 * 1024 * 1024; // 20 GB
+    private static final int MAX_FILES = 1000;
+    private static final long UPLOAD_EXPIRY = 24 * 60 * 60 * 1000; // 24 hours
+
+    private static final Pattern UPLOAD_ID = Pattern.compile("[A-Za-z0-9]{1,64}");
+
+    @Autowired
+    private FileStorageService storageService;
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    @Autowired
+    private ReclamationService reclamationService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private ContentProof contentProof;
+
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+    private Path stagingDir;
+
+    @PostConstruct
+    public void init() {
+        try {
+            stagingDir = storageService.getUploadDir().resolve(STAGING_DIR);
+            Files.createDirectories(stagingDir);
+
+            // Drop uploads that were started but never completed; check every 10 minutes
+            storageService.scheduleMaintenance(this::cleanupAbandonedUploads, 1, 10, TimeUnit.MINUTES);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create chunk staging directory", e);
+        }
+    }
+
+    public ChunkedUpload initUpload(UploadInitRequest request, String uploaderIp) throws IOException {
+        if (request.getFiles() == null || request.getFiles().isEmpty()) {
+            throw new IllegalArgumentException("No files declared");
+        }
+        if (request.getFiles().size() > MAX_FILES) {
+            throw new IllegalArgumentException("Too many files (max " + MAX_FILES + ")");
+        }
+
+        long chunkSize = request.getChunkSize() != null ? request.getChunkSize() : DEFAULT_CHUNK_SIZE;
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between "
+                    + storageService.formatSize(MIN_CHUNK_SIZE) + " and " + storageService.formatSize(MAX_CHUNK_SIZE));
+        }
+
+        List<String> fileNames = new ArrayList<>();
+        List<Long> fileSizes = new ArrayList<>();
+        List<String> linkedHashes = new ArrayList<>();
+        long totalSize = 0;
+        for (UploadInitRequest.FileSpec spec : request.getFiles()) {
+            String fileName = storageService.sanitizeFileName(spec.getName());
+            if (fileNames.contains(fileName)) {
+                throw new IllegalArgumentException("Duplicate file name: " + fileName);
+            }
+            if (spec.getSize() < 0) {
+                throw new IllegalArgumentException("Invalid size for " + fileName);
+            }
+            String sha256 = spec.getSha256() != null ? spec.getSha256().toLowerCase() : null;
+            boolean linked = sha256 != null && blobStore.size(sha256) == spec.getSize()
+                    && sha256.equals(contentProof.verify(spec.getProof()));
+            fileNames.add(fileName);
+            fileSizes.add(spec.getSize());
+            linkedHashes.add(linked ? sha256 : null);
+            totalSize += spec.getSize();
+        }
+        if (totalSize > MAX_UPLOAD_SIZE) {
+            throw new IllegalArgumentException("Upload too large (max " + storageService.formatSize(MAX_UPLOAD_SIZE) + ")");
+        }
+
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        Path dir = stagingDir.resolve(uploadId);
+        Files.createDirectories(dir);
+        Files.createDirectories(metaDir(uploadId));
+        Files.createFile(metaDir(uploadId).resolve(LOCK_FILE));
+
+        ChunkedUpload upload = new ChunkedUpload(uploadId, dir, fileNames, fileSizes, linkedHashes,
+                chunkSize, System.currentTimeMillis(), uploaderIp);
+
+        byte[] bitmap = new byte[upload.getTotalChunks()];
+        for (int i = 0; i < fileNames.size(); i++) {
+            if (upload.getLinkedHash(i) != null) {
+                blobStore.link(upload.getLinkedHash(i), dir.resolve(fileNames.get(i)));
+                Arrays.fill(bitmap, upload.getFirstChunk(i), upload.getFirstChunk(i) + upload.getChunkCount(i), (byte) 1);
+                continue;
+            }
+            // Pre-size the targets (sparse) so chunks can land at any offset
+            try (RandomAccessFile file = new RandomAccessFile(dir.resolve(fileNames.get(i)).toFile(), "rw")) {
+                file.setLength(fileSizes.get(i));
+            }
+        }
+        Files.write(metaDir(uploadId).resolve(BITMAP_FILE), bitmap);
+        // The manifest goes last: its presence marks the upload as usable
+        writeManifest(upload);
+
+        uploads.put(uploadId, upload);
+
+        EventLog.info("upload.chunked", "📤 Chunked upload started: {} | {} files, {} chunks, {}",
+                uploadId, fileNames.size(), upload.getTotalChunks(),
+                EventLog.lazy(() -> storageService.formatSize(upload.getTotalSize())));
+
+        return upload;
+    }
+
+    /**
+     * Writes one chunk at its offset. The body must be exactly the chunk's length.
+     * Re-sending a chunk simply overwrites it; once the upload is being completed,
+     * chunks are refused.
+     */
+    public void writeChunk(String uploadId, int fileIndex, int chunk, InputStream body) throws IOException {
+        ChunkedUpload upload = findUpload(uploadId);
+
+        if (fileIndex < 0 || fileIndex >= upload.getFileNames().size()) {
+            throw new IllegalArgumentException("No file with index " + fileIndex);
+        }
+        if (chunk < 0 || chunk >= upload.getChunkCount(fileIndex)) {
+            throw new IllegalArgumentException("No chunk " + chunk + " in file " + fileIndex);
+        }
+        if (upload.getLinkedHash(fileIndex) != null || upload.getSettled(fileIndex) != null) {
+            // Linked to a shared blob, which must never be written to
+            throw new IllegalArgumentException("File " + fileIndex + " is already on the server");
+        }
+
+        if (!upload.beginWrite()) {
+            throw new IllegalStateException("Upload " + uploadId + " is being completed");
+        }
+        try {
+            FileLock lock = lockAcrossProcesses(upload, 1L + upload.getFirstChunk(fileIndex) + chunk, 1, true);
+            if (lock == null) {
+                throw new IllegalStateException("Upload " + uploadId + " is being completed, or chunk " + chunk
+                        + " is already being written");
+            }
+            try {
+                write(upload, fileIndex, chunk, body);
+            } finally {
+                lock.channel().close();
+            }
+        } finally {
+            upload.endWrite();
+        }
+    }
+
+    private void write(ChunkedUpload upload, int fileIndex, int chunk, InputStream body) throws IOException {
+        long expected = upload.getChunkLength(fileIndex, chunk);
+        long offset = chunk * upload.getChunkSize();
+        Path target = upload.getPath().resolve(upload.getFileNames().get(fileIndex));
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(body);
+            ByteBuffer buffer = bufferPool.acquire();
+            long written = 0;
+
+            try {
+                while (true) {
+                    int read = source.read(buffer);
+                    if (read < 0) {
+                        break;
+                    }
+                    if (written + buffer.position() > expected) {
+                        throw new IllegalArgumentException("Chunk " + chunk + " is larger than " + expected + " bytes");
+                    }
+                    if (!buffer.hasRemaining()) {
+                        written += flush(channel, buffer, offset + written);
+                    }
+                }
+                written += flush(channel, buffer, offset + written);
+            } finally {
+                bufferPool.release(buffer);
+            }
+
+            if (written != expected) {
+                throw new IllegalArgumentException("Chunk " + chunk + " has " + written
+                        + " bytes, expected " + expected);
+            }
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("Upload not found: " + upload.getId());
+        }
+
+        // Only now that the data is in place is the chunk marked as received
+        try (FileChannel bitmap = FileChannel.open(metaDir(upload.getId()).resolve(BITMAP_FILE), StandardOpenOption.WRITE)) {
+            bitmap.write(ByteBuffer.wrap(new byte[]{1}), upload.getFirstChunk(fileIndex) + chunk);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("Upload not found: " + upload.getId());
+        }
+    }
+
+    /**
+     * Returns which chunks of each file have arrived.
+     */
+    public BitSet getReceivedChunks(String uploadId) throws IOException {
+        return readBitmap(findUpload(uploadId));
+    }
+
+    /**
+     * Finishes an upload once every chunk has arrived and publishes it as a transfer.
+     */
+    public TransferSession completeUpload(String uploadId) throws IOException {
+        ChunkedUpload upload = findUpload(uploadId);
+
+        BitSet received = readBitmap(upload);
+        int missing = upload.getTotalChunks() - received.cardinality();
+        if (missing > 0) {
+            throw new IllegalStateException(missing + " chunks still missing");
+        }
+
+        // Only one completion may win, and only once no chunk is being written
+        if (!upload.beginCompletion()) {
+            throw new IllegalStateException("Upload " + uploadId + " is being completed or is still receiving chunks");
+        }
+
+        TransferSession session;
+        FileLock lock = null;
+        try {
+            // Held until the files have moved, so chunks sent to other processes find them gone
+            lock = lockAcrossProcesses(upload, 0, Long.MAX_VALUE, false);
+            if (lock == null) {
+                throw new IllegalStateException("Upload " + uploadId + " is being completed or is still receiving chunks");
+            }
+            // Another process may have got part of the way through completing it
+            ChunkedUpload recorded = readManifest(uploadId, metaDir(uploadId).resolve(MANIFEST_FILE));
+            for (int i = 0; i < upload.getFileNames().size(); i++) {
+                if (upload.getSettled(i) == null && recorded.getSettled(i) != null) {
+                    upload.setSettled(i, recorded.getSettled(i));
+                }
+            }
+
+            // Chunks arrive out of order, so the files can only be hashed (and compressed) once they are complete
+            List<StoredFile> files = new ArrayList<>();
+            for (int i = 0; i < upload.getFileNames().size(); i++) {
+                files.add(store(upload, i));
+            }
+            session = storageService.adoptDirectory(upload.getPath(), files, upload.getUploaderIp());
+        } catch (NoSuchFileException e) {
+            upload.abandonCompletion();
+            throw new FileNotFoundException("Upload not found: " + uploadId);
+        } catch (IOException | RuntimeException e) {
+            upload.abandonCompletion();
+            throw e;
+        } finally {
+            if (lock != null) {
+                lock.channel().close();
+            }
+        }
+
+        // Until the transfer is registered the manifest is what lets the upload be completed again
+        reclamationService.reclaim(metaDir(uploadId));
+        uploads.remove(uploadId, upload);
+
+        EventLog.info("upload.chunked", "✅ Chunked upload {} completed as transfer: {}", uploadId, session.getId());
+
+        return session;
+    }
+
+    /**
+     * Hashes and shares one file of a complete upload, recording the result in the
+     * manifest so that a retried completion picks it up instead of doing it again.
+     */
+    private StoredFile store(ChunkedUpload upload, int fileIndex) throws IOException {
+        String fileName = upload.getFileNames().get(fileIndex);
+        Path file = upload.getPath().resolve(fileName);
+        StoredFile stored = upload.getSettled(fileIndex);
+        if (stored != null) {
+            return stored;
+        }
+        String linked = upload.getLinkedHash(fileIndex);
+        if (linked != null) {
+            return storageService.linked(fileName, file, linked);
+        }
+
+        long size = upload.getFileSizes().get(fileIndex);
+        if (Files.size(file) != size) {
+            // Compressed by a completion that was cut off before it could record it
+            throw new IOException(fileName + " was changed by an interrupted completion");
+        }
+        stored = storageService.settle(fileName, file, size);
+        upload.setSettled(fileIndex, stored);
+        writeManifest(upload);
+        return stored;
+    }
+
+    public void abortUpload(String uploadId) throws IOException {
+        ChunkedUpload upload = findUpload(uploadId);
+        if (!upload.beginCompletion()) {
+            throw new IllegalStateException("Upload " + uploadId + " is being completed or is still receiving chunks");
+        }
+        FileLock lock;
+        try {
+            lock = lockAcrossProcesses(upload, 0, Long.MAX_VALUE, false);
+        } catch (IOException | RuntimeException e) {
+            upload.abandonCompletion();
+            throw e;
+        }
+        if (lock == null) {
+            upload.abandonCompletion();
+            throw new IllegalStateException("Upload " + uploadId + " is being completed or is still receiving chunks");
+        }
+        try {
+            uploads.remove(uploadId);
+            reclamationService.reclaim(upload.getPath());
+            reclamationService.reclaim(metaDir(uploadId));
+        } finally {
+            lock.channel().close();
+        }
+
+        EventLog.info("upload.chunked", "🗑️ Chunked upload aborted: {}", uploadId);
+    }
+
+    public ChunkedUpload getUpload(String uploadId) throws IOException {
+        return findUpload(uploadId);
+    }
+
+    private ChunkedUpload findUpload(String uploadId) throws IOException {
+        if (uploadId == null || !UPLOAD_ID.matcher(uploadId).matches()) {
+            throw new FileNotFoundException("Upload not found: " + uploadId);
+        }
+
+        ChunkedUpload upload = uploads.get(uploadId);
+        if (upload != null) {
+            return upload;
+        }
+
+        // Not seen by this process (e.g. after a restart): load it from its manifest
+        Path manifest = metaDir(uploadId).resolve(MANIFEST_FILE);
+        if (!Files.exists(manifest)) {
+            throw new FileNotFoundException("Upload not found: " + uploadId);
+        }
+        upload = readManifest(uploadId, manifest);
+        ChunkedUpload existing = uploads.putIfAbsent(uploadId, upload);
+        return existing != null ? existing : upload;
+    }
+
+    private int flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int count = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        return count;
+    }
+
+    private BitSet readBitmap(ChunkedUpload upload) throws IOException {
+        byte[] flags;
+        try {
+            flags = Files.readAllBytes(metaDir(upload.getId()).resolve(BITMAP_FILE));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("Upload not found: " + upload.getId());
+        }
+        BitSet received = new BitSet(upload.getTotalChunks());
+        for (int i = 0; i < Math.min(flags.length, upload.getTotalChunks()); i++) {
+            if (flags[i] != 0) {
+                received.set(i);
+            }
+        }
+        return received;
+    }
+
+    private void writeManifest(ChunkedUpload upload) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("chunkSize", Long.toString(upload.getChunkSize()));
+        manifest.setProperty("createdAt", Long.toString(upload.getCreatedAt()));
+        manifest.setProperty("uploaderIp", String.valueOf(upload.getUploaderIp()));
+        manifest.setProperty("files", Integer.toString(upload.getFileNames().size()));
+        for (int i = 0; i < upload.getFileNames().size(); i++) {
+            manifest.setProperty("file." + i + ".name", upload.getFileNames().get(i));
+            manifest.setProperty("file." + i + ".size", Long.toString(upload.getFileSizes().get(i)));
+            if (upload.getLinkedHash(i) != null) {
+                manifest.setProperty("file." + i + ".linked", upload.getLinkedHash(i));
+            }
+            StoredFile settled = upload.getSettled(i);
+            if (settled != null) {
+                manifest.setProperty("file." + i + ".sha256", settled.getSha256());
+                manifest.setProperty("file." + i + ".crc32", settled.getCrc32());
+                if (settled.getEncoding() != null) {
+                    manifest.setProperty("file." + i + ".encoding", settled.getEncoding());
+                }
+            }
+        }
+        // Replaced atomically: completion rewrites it as files are settled
+        Path meta = metaDir(upload.getId());
+        Path temp = meta.resolve(MANIFEST_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            manifest.store(out, "chunked upload " + upload.getId());
+        }
+        Files.move(temp, meta.resolve(MANIFEST_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private ChunkedUpload readManifest(String uploadId, Path manifestPath) throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(manifestPath)) {
+            manifest.load(in);
+        }
+        int files = Integer.parseInt(manifest.getProperty("files"));
+        List<String> fileNames = new ArrayList<>();
+        List<Long> fileSizes = new ArrayList<>();
+        List<String> linkedHashes = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            fileNames.add(manifest.getProperty("file." + i + ".name"));
+            fileSizes.add(Long.parseLong(manifest.getProperty("file." + i + ".size")));
+            linkedHashes.add(manifest.getProperty("file." + i + ".linked"));
+        }
+        ChunkedUpload upload = new ChunkedUpload(uploadId, stagingDir.resolve(uploadId), fileNames, fileSizes, linkedHashes,
+                Long.parseLong(manifest.getProperty("chunkSize")),
+                Long.parseLong(manifest.getProperty("createdAt")),
+                manifest.getProperty("uploaderIp"));
+        for (int i = 0; i < files; i++) {
+            String sha256 = manifest.getProperty("file." + i + ".sha256");
+            if (sha256 != null) {
+                upload.setSettled(i, new StoredFile(fileNames.get(i), fileSizes.get(i), sha256,
+                        manifest.getProperty("file." + i + ".encoding"), manifest.getProperty("file." + i + ".crc32")));
+            }
+        }
+        return upload;
+    }
+
+    /**
+     * Locks size bytes of the upload's lock file from position against other
+     * processes, or returns null if one of them (or, for the same chunk, another
+     * request here) holds a conflicting lock. Closing the lock's channel releases it.
+     */
+    private FileLock lockAcrossProcesses(ChunkedUpload upload, long position, long size, boolean shared) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(metaDir(upload.getId()).resolve(LOCK_FILE),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            // Completed or aborted by another process
+            throw new FileNotFoundException("Upload not found: " + upload.getId());
+        }
+        try {
+            FileLock lock = channel.tryLock(position, size, shared);
+            if (lock == null) {
+                channel.close();
+            }
+            return lock;
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Where an upload's manifest, bitmap and lock file live, apart from its files.
+     */
+    private Path metaDir(String uploadId) {
+        return stagingDir.resolve(uploadId + META_SUFFIX);
+    }
+
+    /**
+     * When the upload last made progress: every chunk writes the bitmap, and completion
+     * the manifest. Writing into a directory's files doesn't touch its own mtime, which
+     * only tells when the upload was started.
+     */
+    private long lastWrite(String uploadId) {
+        long lastWrite = 0;
+        Path meta = metaDir(uploadId);
+        for (Path path : List.of(stagingDir.resolve(uploadId), meta, meta.resolve(BITMAP_FILE), meta.resolve(MANIFEST_FILE))) {
+            try {
+                lastWrite = Math.max(lastWrite, Files.getLastModifiedTime(path).toMillis());
+            } catch (IOException e) {
+                // Started but never got as far as writing it, or half cleaned up already
+            }
+        }
+        return lastWrite;
+    }
+
+    private void cleanupAbandonedUploads() {
+        long cutoff = System.currentTimeMillis() - UPLOAD_EXPIRY;
+
+        // An upload is its directory of files and its metadata directory; either may be left on its own
+        Set<String> uploadIds = new HashSet<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(stagingDir)) {
+            for (Path dir : dirs) {
+                String name = dir.getFileName().toString();
+                uploadIds.add(name.endsWith(META_SUFFIX) ? name.substring(0, name.length() - META_SUFFIX.length()) : name);
+            }
+        } catch (IOException e) {
+            EventLog.error("upload.cleanup", "❌ Failed to scan chunk staging directory: {}", e.getMessage());
+            return;
+        }
+
+        for (String uploadId : uploadIds) {
+            if (lastWrite(uploadId) > cutoff) {
+                continue;
+            }
+            uploads.remove(uploadId);
+            reclamationService.reclaim(stagingDir.resolve(uploadId));
+            reclamationService.reclaim(metaDir(uploadId));
+            EventLog.info("upload.cleanup", "🧹 Cleaned abandoned upload: {}", uploadId);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.sameerbasha1.shazam.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides whether content is worth deflating, from its file type or else from how
+ * much a quickly deflated sample of its start shrinks.
+ */
+final class Compressibility {
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+    // Not worth it if a deflated sample is still more than this fraction of its size
+    private static final double STORE_RATIO = 0.95;
+
+    // Formats that are compressed already
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar", "jar", "apk",
+            "docx", "xlsx", "pptx", "odt", "epub");
+
+    private Compressibility() {
+    }
+
+    static boolean isCompressedType(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_TYPES.contains(name.substring(dot + 1));
+    }
+
+    /**
+     * Samples the start of a stream that supports mark/reset and rewinds it again.
+     */
+    static boolean worthCompressing(InputStream in) throws IOException {
+        in.mark(SAMPLE_SIZE);
+        byte[] sample = in.readNBytes(SAMPLE_SIZE);
+        in.reset();
+        return worthCompressing(sample, sample.length);
+    }
+
+    static boolean worthCompressing(byte[] sample, int length) {
+        if (length == 0) {
+            return true;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] scratch = new byte[SAMPLE_SIZE];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(scratch);
+            }
+            return compressed < length * STORE_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.sameerbasha1.shazam.service;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.CRC32;
+
+/**
+ * The checksums recorded for a stored file, fed from the same pass that writes (or
+ * first reads) its content: SHA-256, which also names the file's blob, and CRC32 as
+ * the fast one. CRC32 rather than CRC32C because gzip and ZIP already carry it, so a
+ * file kept gzipped at rest has it in its trailer and any client can check it.
+ */
+public final class ContentHash {
+
+    private final MessageDigest sha256 = BlobStore.newDigest();
+    private final CRC32 crc32 = new CRC32();
+
+    public void update(byte[] bytes, int offset, int length) {
+        sha256.update(bytes, offset, length);
+        crc32.update(bytes, offset, length);
+    }
+
+    /**
+     * Feeds the buffer's remaining bytes, leaving its position where it was.
+     */
+    public void update(ByteBuffer buffer) {
+        int position = buffer.position();
+        sha256.update(buffer);
+        buffer.position(position);
+        crc32.update(buffer);
+        buffer.position(position);
+    }
+
+    /**
+     * The SHA-256 in hex. Call once, when all content has been fed.
+     */
+    public String sha256() {
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    public long crc32Value() {
+        return crc32.getValue();
+    }
+
+    public String crc32() {
+        return hex(crc32.getValue());
+    }
+
+    /**
+     * A CRC32 as eight hex digits, the way it is recorded and reported.
+     */
+    public static String hex(long crc32) {
+        return HexFormat.of().toHexDigits((int) crc32);
+    }
+
+    /**
+     * The value of a CRC32 recorded by hex(long).
+     */
+    public static long crc32Value(String hex) {
+        return HexFormat.fromHexDigits(hex) & 0xffffffffL;
+    }
+}
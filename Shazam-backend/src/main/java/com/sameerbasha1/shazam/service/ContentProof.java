@@ -0,0 +1,140 @@
+package com.sameerbasha1.shazam.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * Proof that a client has the content it asks to have linked from the blob store
+ * instead of uploading it; knowing a file's SHA-256 must not be enough to get a copy.
+ *
+ * Preflight hands out a challenge naming a random range of the content, and the
+ * client answers with the SHA-256 of the challenge followed by those bytes. A proof
+ * is "<challenge>:<answer>". Challenges are signed rather than remembered, so every
+ * process sharing the secret accepts them, and expire after ten minutes.
+ */
+@Service
+public class ContentProof {
+
+    private static final long RANGE_LENGTH = 64 * 1024;
+    private static final long CHALLENGE_TTL_MS = 10 * 60 * 1000;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    @Value("${shazam.dedup.proof-secret:}")
+    private String secret;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    private final SecureRandom random = new SecureRandom();
+    private SecretKeySpec key;
+
+    public record Challenge(String challenge, long offset, long length) {
+    }
+
+    @PostConstruct
+    public void init() {
+        byte[] keyBytes;
+        if (secret == null || secret.isBlank()) {
+            // Fine for one process; processes sharing a store need the same secret
+            keyBytes = new byte[32];
+            random.nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+    }
+
+    /**
+     * A challenge for content the store has, or null if it doesn't have it.
+     */
+    public Challenge issue(String sha256) {
+        long size = blobStore.size(sha256);
+        if (size < 0) {
+            return null;
+        }
+        long length = Math.min(RANGE_LENGTH, size);
+        long offset = random.nextLong(size - length + 1);
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+
+        String fields = sha256 + "." + offset + "." + length + "."
+                + (System.currentTimeMillis() + CHALLENGE_TTL_MS) + "." + HexFormat.of().formatHex(nonce);
+        return new Challenge(fields + "." + sign(fields), offset, length);
+    }
+
+    /**
+     * Checks a proof and returns the hash of the content it proves, or null if it is
+     * malformed, forged, expired or wrong.
+     */
+    public String verify(String proof) throws IOException {
+        int colon = proof != null ? proof.lastIndexOf(':') : -1;
+        if (colon < 0) {
+            return null;
+        }
+        String challenge = proof.substring(0, colon);
+        String answer = proof.substring(colon + 1).toLowerCase();
+
+        String[] parts = challenge.split("\\.");
+        if (parts.length != 6 || !BlobStore.isValidHash(parts[0])) {
+            return null;
+        }
+        String fields = challenge.substring(0, challenge.lastIndexOf('.'));
+        if (!MessageDigest.isEqual(sign(fields).getBytes(StandardCharsets.US_ASCII),
+                parts[5].getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        // Signed by us, so well-formed
+        long offset = Long.parseLong(parts[1]);
+        long length = Long.parseLong(parts[2]);
+        if (Long.parseLong(parts[3]) < System.currentTimeMillis()) {
+            return null;
+        }
+
+        String expected = answer(challenge, parts[0], offset, length);
+        return expected != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                answer.getBytes(StandardCharsets.US_ASCII)) ? parts[0] : null;
+    }
+
+    /**
+     * The answer to a challenge, or null if the content is no longer stored.
+     */
+    private String answer(String challenge, String sha256, long offset, long length) throws IOException {
+        MessageDigest digest = BlobStore.newDigest();
+        digest.update(challenge.getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = blobStore.openContent(sha256)) {
+            in.skipNBytes(offset);
+            byte[] range = in.readNBytes((int) length);
+            if (range.length != length) {
+                return null;
+            }
+            digest.update(range);
+        } catch (FileNotFoundException | EOFException e) {
+            return null;
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String sign(String fields) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return HexFormat.of().formatHex(mac.doFinal(fields.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
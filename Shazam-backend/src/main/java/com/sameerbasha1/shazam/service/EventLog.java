@@ -0,0 +1,114 @@
+package com.sameerbasha1.shazam.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Application log, on SLF4J.
+ *
+ * Every event has a type ("download.request", ...) and goes to the logger
+ * "shazam.event.<type>", so types can also be tuned with logging.level.*. INFO and
+ * DEBUG events can be sampled by type; warnings and errors are always kept.
+ *
+ * Writing is asynchronous: logback-spring.xml puts an EventLogAppender, Logback's
+ * AsyncAppender set never to block, in front of the console. Request threads only
+ * queue the event; when the queue is full it is dropped and counted.
+ *
+ * Levels and sample rates are set from shazam.log.* by EventLogConfig.
+ */
+public final class EventLog {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final String LOGGER_PREFIX = "shazam.event.";
+
+    private static volatile Level level = Level.INFO;
+    private static final Map<String, Double> sampleRates = new ConcurrentHashMap<>();
+    private static final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+
+    private static final LongAdder sampledOut = new LongAdder();
+    private static final LongAdder logged = new LongAdder();
+
+    private EventLog() {
+    }
+
+    public static void debug(String type, String message, Object... args) {
+        log(Level.DEBUG, type, message, args, null);
+    }
+
+    public static void info(String type, String message, Object... args) {
+        log(Level.INFO, type, message, args, null);
+    }
+
+    public static void warn(String type, String message, Object... args) {
+        log(Level.WARN, type, message, args, null);
+    }
+
+    public static void error(String type, String message, Object... args) {
+        log(Level.ERROR, type, message, args, null);
+    }
+
+    /**
+     * Logs an error with the stack trace of its cause.
+     */
+    public static void error(String type, Throwable cause, String message, Object... args) {
+        log(Level.ERROR, type, message, args, cause);
+    }
+
+    /**
+     * An argument that is only computed if the event is logged.
+     */
+    public static Object lazy(Supplier<?> value) {
+        return new Object() {
+            @Override
+            public String toString() {
+                return String.valueOf(value.get());
+            }
+        };
+    }
+
+    /**
+     * Sets the lowest level that is logged and the sample rate per event type (0 to
+     * 1; types not listed are always logged).
+     */
+    public static synchronized void configure(Level minimumLevel, Map<String, Double> rates) {
+        level = minimumLevel;
+        sampleRates.clear();
+        sampleRates.putAll(rates);
+    }
+
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>(EventLogAppender.getMetrics());
+        metrics.put("level", level.name());
+        metrics.put("logged", logged.sum());
+        metrics.put("sampledOut", sampledOut.sum());
+        return metrics;
+    }
+
+    private static void log(Level eventLevel, String type, String message, Object[] args, Throwable cause) {
+        if (eventLevel.compareTo(level) < 0) {
+            return;
+        }
+        Logger logger = loggers.computeIfAbsent(type, name -> LoggerFactory.getLogger(LOGGER_PREFIX + name));
+        org.slf4j.event.Level slf4jLevel = org.slf4j.event.Level.valueOf(eventLevel.name());
+        if (!logger.isEnabledForLevel(slf4jLevel)) {
+            return;
+        }
+        if (eventLevel.compareTo(Level.WARN) < 0) {
+            Double rate = sampleRates.get(type);
+            if (rate != null && ThreadLocalRandom.current().nextDouble() >= rate) {
+                sampledOut.increment();
+                return;
+            }
+        }
+        logger.atLevel(slf4jLevel).setCause(cause).log(message, args);
+        logged.increment();
+    }
+}
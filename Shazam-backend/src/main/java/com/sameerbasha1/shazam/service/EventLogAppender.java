@@ -0,0 +1,55 @@
+package com.sameerbasha1.shazam.service;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logback's AsyncAppender, counting the events it drops. Configured with neverBlock
+ * (see logback-spring.xml), it drops an event rather than wait when its queue is
+ * full, and doesn't say so; the count shows up in /api/stats.
+ */
+public class EventLogAppender extends AsyncAppender {
+
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile EventLogAppender current;
+
+    @Override
+    public void start() {
+        super.start();
+        if (isStarted()) {
+            current = this;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (current == this) {
+            current = null;
+        }
+        super.stop();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        // Racy, but only with other threads filling the last free slots
+        if (isStarted() && getRemainingCapacity() == 0) {
+            dropped.increment();
+        }
+        super.append(event);
+    }
+
+    static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        EventLogAppender appender = current;
+        if (appender != null) {
+            metrics.put("capacity", appender.getQueueSize());
+            metrics.put("queued", appender.getNumberOfElementsInQueue());
+        }
+        metrics.put("dropped", dropped.sum());
+        return metrics;
+    }
+}
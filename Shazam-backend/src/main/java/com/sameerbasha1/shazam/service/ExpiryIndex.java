@@ -0,0 +1,80 @@
+package com.sameerbasha1.shazam.service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Transfer IDs ordered by expiry time, so a sweep only touches what is actually due
+ * instead of walking every live session. Adds and removes are O(log n) on a
+ * concurrent skip list; a sweep is O(k log n) for the k entries it expires.
+ */
+public class ExpiryIndex {
+
+    private record Entry(long expiryTime, String id) {
+    }
+
+    private static final Comparator<Entry> ORDER =
+            Comparator.comparingLong(Entry::expiryTime).thenComparing(Entry::id);
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final LongAccumulator maxSweepLagMs = new LongAccumulator(Long::max, 0);
+    private volatile long lastSweepLagMs;
+    private volatile long lastSweepDurationMicros;
+
+    public void add(String transferId, long expiryTime) {
+        entries.add(new Entry(expiryTime, transferId));
+    }
+
+    public void remove(String transferId, long expiryTime) {
+        entries.remove(new Entry(expiryTime, transferId));
+    }
+
+    /**
+     * Removes and returns every transfer due at the given time, oldest first.
+     */
+    public List<String> pollDue(long now) {
+        List<String> due = new ArrayList<>();
+        long lag = 0;
+
+        for (Entry entry : entries) {
+            if (entry.expiryTime() > now) {
+                break;
+            }
+            // A concurrent remove() may have beaten us to it
+            if (entries.remove(entry)) {
+                due.add(entry.id());
+                lag = Math.max(lag, now - entry.expiryTime());
+            }
+        }
+
+        lastSweepLagMs = lag;
+        maxSweepLagMs.accumulate(lag);
+        expired.addAndGet(due.size());
+        sweeps.incrementAndGet();
+        return due;
+    }
+
+    public void recordSweepDuration(long nanos) {
+        lastSweepDurationMicros = nanos / 1000;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("pending", entries.size());
+        metrics.put("sweeps", sweeps.get());
+        metrics.put("expired", expired.get());
+        metrics.put("lastSweepLagMs", lastSweepLagMs);
+        metrics.put("maxSweepLagMs", maxSweepLagMs.get());
+        metrics.put("lastSweepDurationMicros", lastSweepDurationMicros);
+        return metrics;
+    }
+}
@@ -1,215 +1,771 @@
 package com.sameerbasha1.shazam.service;
 
+import com.sameerbasha1.shazam.model.StoredFile;
 import com.sameerbasha1.shazam.model.TransferSession;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.MultipartConfigElement;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class FileStorageService {
 
-    private final Path uploadDir = Paths.get("uploads");
-    private final Map<String, TransferSession> sessions = new ConcurrentHashMap<>();
+    @Value("${shazam.storage.upload-dir:uploads}")
+    private Path uploadDir;
+
+    @Value("${shazam.storage.zero-copy-ingest:true}")
+    private boolean zeroCopyIngest;
+
+    @Value("${shazam.storage.archive-cache:false}")
+    private boolean cacheArchives;
+
+    // Larger transfers are zipped on the fly even with the archive cache on
+    @Value("${shazam.storage.archive-cache.max-transfer-size:256MB}")
+    private DataSize maxCachedTransfer;
+
+    @Value("${shazam.storage.compress-at-rest:true}")
+    private boolean compressAtRest;
+
+    // "memory", or "shared" for several backend processes serving the same upload dir
+    @Value("${shazam.storage.session-store:memory}")
+    private String sessionStore;
+
+    // Base62 characters in a transfer ID
+    @Value("${shazam.storage.transfer-id-length:10}")
+    private int transferIdLength;
+
+    // Threads deflating ZIP entries; 0 means one per CPU
+    @Value("${shazam.storage.zip-threads:0}")
+    private int zipThreads;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Autowired
+    private MultipartConfigElement multipartConfig;
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    @Autowired
+    private ReclamationService reclamationService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private ContentProof contentProof;
+
+    @Autowired
+    private TransferMetrics metrics;
+
+    @Autowired
+    private UploadAdmission admission;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private HotTransferCache hotCache;
+
+    // True when the container spools uploads on the same filesystem as uploadDir
+    private boolean renameOnIngest;
+
+    private SessionStore sessions;
     private static final long EXPIRY_TIME = 24 * 60 * 60 * 1000; // 24 hours
+    private static final int ZIP_BUFFER_SIZE = 64 * 1024;
+    private static final String JOURNAL_FILE = ".sessions.journal";
+    private static final String ARCHIVE_DIR = ".archives";
+    // Smaller files aren't worth the gzip framing and the decoding on download
+    private static final long MIN_COMPRESS_SIZE = 1024;
+
+    private TransferLayout layout;
+    private TransferIdAllocator transferIds;
+    private final ExpiryIndex expiryIndex = new ExpiryIndex();
+    private ArchiveCache archiveCache;
+    private ExecutorService archiveBuilders;
+    private ExecutorService zipWorkers;
+    private ZipArchiveWriter zipWriter;
+
+    // Aggregates over the live sessions, kept up to date so /api/stats doesn't scan them
+    private final LongAdder activeTransfers = new LongAdder();
+    private final LongAdder totalDownloads = new LongAdder();
+    private final LongAdder totalBytes = new LongAdder();
+    private final LongAdder filesCompressed = new LongAdder();
+    private final LongAdder bytesSavedByCompression = new LongAdder();
+    private ScheduledExecutorService maintenance;
 
     @PostConstruct
     public void init() {
         try {
             Files.createDirectories(uploadDir);
-            System.out.println("📁 Upload directory created: " + uploadDir.toAbsolutePath());
+            layout = new TransferLayout(uploadDir);
+            transferIds = new TransferIdAllocator(transferIdLength, Runtime.getRuntime().availableProcessors());
+            EventLog.info("storage", "📁 Upload directory created: {}", uploadDir.toAbsolutePath());
+
+            Path spoolDir = Paths.get(multipartConfig.getLocation());
+            renameOnIngest = zeroCopyIngest && Files.isDirectory(spoolDir)
+                    && Files.getFileStore(spoolDir).equals(Files.getFileStore(uploadDir));
+            EventLog.info("storage", renameOnIngest
+                    ? "📁 Uploads are moved from {} without copying"
+                    : "📁 Uploads are copied from the container's temp files", spoolDir);
+
+            int zipParallelism = zipThreads > 0 ? zipThreads : Runtime.getRuntime().availableProcessors();
+            zipWorkers = new ForkJoinPool(zipParallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("zip-deflate-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+            zipWriter = new ZipArchiveWriter(zipWorkers, zipParallelism);
+
+            archiveBuilders = Executors.newCachedThreadPool(daemonThreads("archive-builder", virtualThreads));
+            archiveCache = new ArchiveCache(uploadDir.resolve(ARCHIVE_DIR), this::writeZip, archiveBuilders);
+
+            restoreSessions();
+
+            // A tick only visits transfers that are due, so it can run every second
+            maintenance = Executors.newSingleThreadScheduledExecutor(daemonThreads("storage-maintenance", virtualThreads));
+            maintenance.scheduleWithFixedDelay(this::cleanupExpiredSessions, 0, 1, TimeUnit.SECONDS);
+            maintenance.scheduleWithFixedDelay(sessions::maintain, 1, 1, TimeUnit.SECONDS); // Flush the journal every second
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create upload directory", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+        }
+        if (archiveBuilders != null) {
+            archiveBuilders.shutdownNow();
+        }
+        if (zipWorkers != null) {
+            zipWorkers.shutdownNow();
+        }
+        if (sessions != null) {
+            sessions.close();
+        }
+    }
+
+    /**
+     * Rebuilds the session map from the journal. Checking the result against what is
+     * actually on disk happens in the background so startup isn't held up by it.
+     */
+    private void restoreSessions() throws IOException {
+        long start = System.nanoTime();
+        Path journalFile = uploadDir.resolve(JOURNAL_FILE);
+        sessions = switch (sessionStore) {
+            case "memory" -> new InMemorySessionStore(journalFile);
+            case "shared" -> new SharedSessionStore(journalFile);
+            default -> throw new IllegalArgumentException("Unknown session store: " + sessionStore);
+        };
+        // Changes made by other processes sharing the store
+        sessions.open(new SessionStore.Listener() {
+            @Override
+            public void added(TransferSession session) {
+                indexSession(session);
+            }
+
+            @Override
+            public void removed(TransferSession session) {
+                forgetSession(session);
+            }
+
+            @Override
+            public void downloaded(TransferSession session, int downloads) {
+                totalDownloads.add(downloads);
+            }
+        });
+        for (TransferSession session : sessions.all()) {
+            indexSession(session);
+        }
+        migrateLayout();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        EventLog.info("storage", "♻️ Restored {} transfers from journal in {} ms", sessions.size(), elapsedMs);
 
-            // Schedule cleanup task
-            new Timer().scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    cleanupExpiredSessions();
+        long startedAt = System.currentTimeMillis();
+        daemonThreads("session-reconciler", virtualThreads)
+                .newThread(() -> reconcileWithDisk(startedAt))
+                .start();
+    }
+
+    /**
+     * Moves transfers stored directly in the upload directory into their shard (see
+     * TransferLayout). Each move is a rename, and this runs before requests are served,
+     * so no download can see a transfer half-way, and each moved session is recorded
+     * again with its new path.
+     */
+    private void migrateLayout() throws IOException {
+        long start = System.nanoTime();
+        int migrated = 0;
+        for (TransferSession session : List.copyOf(sessions.all())) {
+            Path target = layout.dirOf(session.getId());
+            if (layout.isInPlace(session.getId(), session.getPath()) || !Files.isDirectory(session.getPath())) {
+                continue; // Gone sessions are dropped by the reconciler
+            }
+            try {
+                Files.createDirectories(target.getParent());
+                Files.move(session.getPath(), target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                EventLog.warn("storage", "⚠️ Could not move transfer {} into its shard, leaving it at {}: {}",
+                        session.getId(), session.getPath(), e.getMessage());
+                continue;
+            }
+            sessions.put(session.withPath(target));
+            migrated++;
+        }
+        if (migrated > 0) {
+            EventLog.info("storage", "📁 Moved {} transfers into sharded directories in {} ms",
+                    migrated, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Drops sessions whose files are gone or that expired while we were down, and deletes
+     * transfer directories that no session refers to any more.
+     */
+    private void reconcileWithDisk(long startedAt) {
+        int dropped = 0;
+        int orphans = 0;
+
+        for (TransferSession session : sessions.all()) {
+            if (session.isExpired() || !Files.isDirectory(session.getPath())) {
+                if (removeSession(session.getId()) != null) {
+                    reclamationService.reclaim(session.getPath());
+                    dropped++;
+                }
+            }
+        }
+
+        try {
+            AtomicInteger orphanDirs = new AtomicInteger();
+            layout.forEachTransferDir(dir -> {
+                // Anything newer than startup may be an upload in flight
+                if (sessions.contains(dir.getFileName().toString())
+                        || Files.getLastModifiedTime(dir).toMillis() >= startedAt) {
+                    return;
                 }
-            }, 0, 60000); // Check every minute
+                reclamationService.reclaim(dir);
+                orphanDirs.incrementAndGet();
+            });
+            orphans += orphanDirs.get();
+            Set<String> live = new HashSet<>();
+            sessions.all().forEach(session -> live.add(session.getId()));
+            for (Path archive : archiveCache.orphans(live)) {
+                reclamationService.reclaim(archive);
+                orphans++;
+            }
         } catch (IOException e) {
-            throw new RuntimeException("Could not create upload directory", e);
+            EventLog.error("storage", "❌ Failed to scan upload directory: {}", e.getMessage());
+        }
+
+        if (dropped > 0 || orphans > 0) {
+            EventLog.info("storage", "🧹 Reconciled with disk: {} stale transfers dropped, {} orphaned directories and archives deleted",
+                    dropped, orphans);
+        }
+    }
+
+    /**
+     * Removes a session and returns it, or null if it was already gone. The caller
+     * reclaims the transfer's directory.
+     */
+    private TransferSession removeSession(String transferId) {
+        TransferSession session = sessions.remove(transferId);
+        if (session != null) {
+            forgetSession(session);
+        }
+        return session;
+    }
+
+    private void indexSession(TransferSession session) {
+        expiryIndex.add(session.getId(), session.getExpiryTime());
+        activeTransfers.increment();
+        totalDownloads.add(session.getDownloadCount());
+        totalBytes.add(session.getTotalSize());
+    }
+
+    /**
+     * Drops everything kept about a session that has left the store.
+     */
+    private void forgetSession(TransferSession session) {
+        String transferId = session.getId();
+        expiryIndex.remove(transferId, session.getExpiryTime());
+        reclamationService.reclaim(archiveCache.evict(transferId));
+        int downloads = session.retire();
+        // After retiring, so a load racing the removal sees it and is not kept
+        hotCache.evict(transferId);
+        if (downloads >= 0) {
+            activeTransfers.decrement();
+            totalDownloads.add(-downloads);
+            totalBytes.add(-session.getTotalSize());
+        }
+    }
+
+    /**
+     * Stores uploaded files plus files the client only referenced by hash, as
+     * "sha256:name", because the server already has their content. Each referenced
+     * hash needs one of the proofs, showing the client has the content; see ContentProof.
+     */
+    public TransferSession storeFiles(MultipartFile[] files, List<String> existing, List<String> proofs,
+                                      String uploaderIp) throws IOException {
+        Set<String> proven = new HashSet<>();
+        for (String proof : proofs) {
+            String sha256 = contentProof.verify(proof);
+            if (sha256 != null) {
+                proven.add(sha256);
+            }
+        }
+
+        List<String[]> references = new ArrayList<>();
+        for (String reference : existing) {
+            int colon = reference.indexOf(':');
+            String sha256 = colon > 0 ? reference.substring(0, colon).toLowerCase() : "";
+            if (!BlobStore.isValidHash(sha256) || colon == reference.length() - 1) {
+                throw new IllegalArgumentException("Expected sha256:name, got " + reference);
+            }
+            if (!blobStore.contains(sha256)) {
+                throw new IllegalStateException("Content not on server: " + sha256);
+            }
+            if (!proven.contains(sha256)) {
+                throw new IllegalArgumentException("No valid proof of possession for " + sha256);
+            }
+            references.add(new String[]{sha256, reference.substring(colon + 1)});
+        }
+
+        String transferId = generateTransferId();
+        Path transferDir = layout.dirOf(transferId);
+
+        List<StoredFile> storedFiles = new ArrayList<>();
+
+        EventLog.info("upload.transfer", "📤 Storing {} files for transfer: {}", files.length + references.size(), transferId);
+
+        try {
+            Files.createDirectories(transferDir);
+            for (MultipartFile file : files) {
+                String fileName = sanitizeFileName(file.getOriginalFilename());
+                Path targetPath = transferDir.resolve(fileName);
+                long start = System.nanoTime();
+                storedFiles.add(ingest(file, fileName, targetPath));
+                metrics.recordFileWrite(System.nanoTime() - start);
+
+                EventLog.debug("upload.file", "  ✓ Saved: {} ({})", fileName, EventLog.lazy(() -> formatSize(file.getSize())));
+            }
+
+            for (String[] reference : references) {
+                String fileName = sanitizeFileName(reference[1]);
+                Path targetPath = transferDir.resolve(fileName);
+                blobStore.link(reference[0], targetPath);
+                StoredFile linked = linked(fileName, targetPath, reference[0]);
+                storedFiles.add(linked);
+                long linkedSize = linked.getSize();
+
+                EventLog.debug("upload.file", "  ✓ Linked: {} ({})", fileName, EventLog.lazy(() -> formatSize(linkedSize)));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Don't leave a half-written transfer behind, e.g. when the disk filled up
+            reclamationService.reclaim(transferDir);
+            transferIds.release(transferId);
+            throw e;
         }
+
+        return registerSession(transferId, transferDir, storedFiles, uploaderIp);
     }
 
-    public TransferSession storeFiles(MultipartFile[] files, String uploaderIp) throws IOException {
+    /**
+     * Turns a fully written staging directory into a transfer. The directory is
+     * renamed into place, so it must live on the same filesystem as the upload dir.
+     */
+    public TransferSession adoptDirectory(Path stagedDir, List<StoredFile> files, String uploaderIp) throws IOException {
         String transferId = generateTransferId();
-        Path transferDir = uploadDir.resolve(transferId);
-        Files.createDirectories(transferDir);
+        Path transferDir = layout.dirOf(transferId);
+        try {
+            Files.createDirectories(transferDir.getParent());
+            // A fresh mtime keeps the startup reconciler from taking it for an orphan
+            Files.setLastModifiedTime(stagedDir, FileTime.fromMillis(System.currentTimeMillis()));
+            Files.move(stagedDir, transferDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            transferIds.release(transferId);
+            throw e;
+        }
+
+        EventLog.info("upload.transfer", "📤 Adopted {} files for transfer: {}", files.size(), transferId);
 
-        List<String> fileNames = new ArrayList<>();
-        long totalSize = 0;
+        return registerSession(transferId, transferDir, files, uploaderIp);
+    }
+
+    /**
+     * Moves an uploaded part into place. The container has already spooled it to disk;
+     * when that is on the same filesystem, Part.write renames the temp file instead of
+     * writing the bytes a second time, and the file is read once to hash it. Otherwise
+     * it is copied through a pooled buffer and hashed on the way. Compressible content
+     * is gzipped from the spooled part instead, when compression at rest is on. Either
+     * way both checksums come from that one pass, and the result is shared through the
+     * blob store.
+     */
+    private StoredFile ingest(MultipartFile file, String fileName, Path targetPath) throws IOException {
+        if (Files.exists(targetPath)) {
+            throw new FileAlreadyExistsException(targetPath.toString());
+        }
+
+        if (mayCompress(fileName, file.getSize())) {
+            try (InputStream in = new BufferedInputStream(file.getInputStream(), Compressibility.SAMPLE_SIZE)) {
+                if (Compressibility.worthCompressing(in)) {
+                    ContentHash hash = gzip(in, file.getSize(), targetPath);
+                    return shared(fileName, targetPath, file.getSize(), hash, GzipFile.ENCODING);
+                }
+            }
+        }
 
-        System.out.println("📤 Storing " + files.length + " files for transfer: " + transferId);
+        if (renameOnIngest) {
+            file.transferTo(targetPath.toAbsolutePath().toFile());
+            return shared(fileName, targetPath, file.getSize(), blobStore.hash(targetPath), null);
+        }
+
+        ContentHash hash = new ContentHash();
+        try (ReadableByteChannel in = Channels.newChannel(file.getInputStream());
+             FileChannel out = FileChannel.open(targetPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            bufferPool.copy(in, out, 0, hash);
+        }
+        return shared(fileName, targetPath, file.getSize(), hash, null);
+    }
 
-        for (MultipartFile file : files) {
-            String fileName = sanitizeFileName(file.getOriginalFilename());
-            Path targetPath = transferDir.resolve(fileName);
-            Files.copy(file.getInputStream(), targetPath);
-            fileNames.add(fileName);
-            totalSize += file.getSize();
+    /**
+     * Shares a file that was written in place, such as an assembled chunked upload,
+     * through the blob store. With compression at rest on, compressible content is
+     * gzipped first, in the same pass that hashes it.
+     */
+    public StoredFile settle(String fileName, Path file, long size) throws IOException {
+        if (mayCompress(fileName, size)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), Compressibility.SAMPLE_SIZE)) {
+                if (Compressibility.worthCompressing(in)) {
+                    Path compressed = file.resolveSibling("." + UUID.randomUUID() + ".gz");
+                    ContentHash hash = gzip(in, size, compressed);
+                    Files.move(compressed, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    return shared(fileName, file, size, hash, GzipFile.ENCODING);
+                }
+            }
+        }
+        return shared(fileName, file, size, blobStore.hash(file), null);
+    }
 
-            System.out.println("  ✓ Saved: " + fileName + " (" + formatSize(file.getSize()) + ")");
+    /**
+     * Describes a file linked to an existing blob instead of uploaded. Its CRC32 comes
+     * from the gzip trailer when the blob is kept compressed, and otherwise is the one
+     * recorded on the blob when it was stored.
+     */
+    public StoredFile linked(String fileName, Path file, String sha256) throws IOException {
+        if (GzipFile.ENCODING.equals(blobStore.encodingOf(sha256, file))) {
+            GzipFile.Header header = GzipFile.read(file);
+            return new StoredFile(fileName, header.originalSize(), sha256, GzipFile.ENCODING,
+                    ContentHash.hex(header.crc()));
         }
+        return new StoredFile(fileName, Files.size(file), sha256, null, blobStore.crc32(file));
+    }
+
+    private StoredFile shared(String fileName, Path file, long size, ContentHash hash, String encoding) throws IOException {
+        String sha256 = blobStore.share(file, hash.sha256(), encoding, hash.crc32());
+        return new StoredFile(fileName, size, sha256, encoding, hash.crc32());
+    }
+
+    private boolean mayCompress(String fileName, long size) {
+        return compressAtRest && size >= MIN_COMPRESS_SIZE && !Compressibility.isCompressedType(fileName);
+    }
 
+    /**
+     * Writes the content as a gzip file at target and returns the content's checksums.
+     */
+    private ContentHash gzip(InputStream in, long size, Path target) throws IOException {
+        ContentHash hash = new ContentHash();
+        long compressed = GzipFile.write(in, size, target, hash);
+        filesCompressed.increment();
+        bytesSavedByCompression.add(size - compressed);
+        return hash;
+    }
+
+    public Path getUploadDir() {
+        return uploadDir;
+    }
+
+    /**
+     * Runs a periodic housekeeping task on the storage maintenance thread. Tasks must
+     * be quick, as the expiry sweep waits behind them.
+     */
+    public void scheduleMaintenance(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        maintenance.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+    }
+
+    private TransferSession registerSession(String transferId, Path transferDir, List<StoredFile> files,
+                                            String uploaderIp) throws IOException {
         // Create transfer session
         TransferSession session = new TransferSession(
                 transferId,
                 transferDir,
-                fileNames,
+                files,
                 System.currentTimeMillis() + EXPIRY_TIME
         );
         session.setUploaderIp(uploaderIp);
-        session.setTotalSize(totalSize);
 
-        sessions.put(transferId, session);
+        try {
+            sessions.put(session);
+        } finally {
+            // The session store holds the ID from here on (or another process does)
+            transferIds.release(transferId);
+        }
+        indexSession(session);
 
-        System.out.println("✅ Transfer created: " + transferId + " | Total: " + formatSize(totalSize));
+        EventLog.info("upload.transfer", "✅ Transfer created: {} | Total: {}", transferId, EventLog.lazy(() -> formatSize(session.getTotalSize())));
 
         return session;
     }
 
-    public Resource loadFile(String transferId) throws IOException {
+    /**
+     * Looks up a transfer for download and checks that it may still be downloaded.
+     */
+    public TransferSession openDownload(String transferId) throws IOException {
         TransferSession session = sessions.get(transferId);
 
         if (session == null) {
-            System.out.println("❌ Transfer not found: " + transferId);
+            EventLog.info("download.rejected", "❌ Transfer not found: {}", transferId);
             throw new FileNotFoundException("Transfer not found");
         }
 
         if (session.isExpired()) {
-            System.out.println("⏰ Transfer expired: " + transferId);
-            sessions.remove(transferId);
-            deleteDirectory(session.getPath());
+            EventLog.info("download.rejected", "⏰ Transfer expired: {}", transferId);
+            if (removeSession(transferId) != null) {
+                reclamationService.reclaim(session.getPath());
+            }
             throw new FileNotFoundException("Transfer has expired");
         }
 
         if (!session.canDownload()) {
-            System.out.println("🚫 Download limit reached: " + transferId);
+            EventLog.info("download.rejected", "🚫 Download limit reached: {}", transferId);
             throw new IOException("Download limit reached");
         }
 
-        // Increment download counter
-        session.incrementDownloadCount();
-
-        System.out.println("📥 Download #" + session.getDownloadCount() + " for transfer: " + transferId);
+        return session;
+    }
 
-        // If multiple files, create a zip
-        if (session.getFileNames().size() > 1) {
-            Path zipPath = createZip(session);
-            return new UrlResource(zipPath.toUri());
-        } else {
-            // Single file
-            Path filePath = session.getPath().resolve(session.getFileNames().get(0));
-            return new UrlResource(filePath.toUri());
+    /**
+     * Counts a download. Callers count the response that reaches the end of the file,
+     * so probes and the earlier parts of a download split into ranges are not counted.
+     */
+    public void recordDownload(TransferSession session) {
+        int count;
+        try {
+            count = sessions.recordDownload(session);
+        } catch (IOException | RuntimeException e) {
+            // The download itself goes ahead
+            EventLog.error("journal", "❌ Failed to journal download of {}: {}", session.getId(), e.getMessage());
+            return;
+        }
+        if (count < 0) {
+            return; // Expired while the download was starting
         }
+        totalDownloads.increment();
+
+        EventLog.info("download.count", "📥 Download #{} for transfer: {}", count, session.getId());
     }
 
-    public TransferSession getTransferInfo(String transferId) {
-        return sessions.get(transferId);
+    /**
+     * Resolves the single file of a one-file transfer.
+     */
+    public Path loadFile(TransferSession session) {
+        return loadFile(session, session.getFiles().get(0));
     }
 
-    public Map<String, Object> getStatistics() {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("activeTransfers", sessions.size());
-        stats.put("totalDownloads", sessions.values().stream()
-                .mapToInt(TransferSession::getDownloadCount)
-                .sum());
-        stats.put("totalSize", sessions.values().stream()
-                .mapToLong(TransferSession::getTotalSize)
-                .sum());
-        return stats;
+    /**
+     * Resolves one file of a transfer.
+     */
+    public Path loadFile(TransferSession session, StoredFile file) {
+        return session.getPath().resolve(file.getName());
     }
 
-    private Path createZip(TransferSession session) throws IOException {
-        String zipFileName = "transfer_" + session.getId() + ".zip";
-        Path zipPath = session.getPath().resolve(zipFileName);
+    /**
+     * One file of a transfer from memory, if the transfer is hot enough to be cached;
+     * otherwise null. See HotTransferCache.
+     */
+    public HotTransferCache.Entry hotFile(TransferSession session, StoredFile file) {
+        return hotCache.file(session, file.getName(), loadFile(session, file));
+    }
 
-        // Create zip only if it doesn't exist
-        if (!Files.exists(zipPath)) {
-            System.out.println("📦 Creating ZIP archive: " + zipFileName);
+    /**
+     * The transfer's finished ZIP archive from memory, if the transfer is hot enough to
+     * be cached; otherwise null.
+     */
+    public HotTransferCache.Entry hotArchive(TransferSession session) {
+        return cachesArchive(session) ? hotCache.archive(session, archiveCache.archivePath(session.getId())) : null;
+    }
 
-            try (ZipOutputStream zos = new ZipOutputStream(
-                    new FileOutputStream(zipPath.toFile()))) {
+    /**
+     * Streams all files of a transfer as a ZIP archive straight to the given output.
+     * Already-compressed files are stored as they are, files gzipped at rest are copied
+     * in without recompressing them, and the rest are deflated in parallel; see
+     * ZipArchiveWriter. Nothing is staged on disk.
+     */
+    public void writeZip(TransferSession session, OutputStream out) throws IOException {
+        EventLog.debug("download.zip", "📦 Streaming ZIP archive for transfer: {}", session.getId());
+        long start = System.nanoTime();
+
+        List<ZipArchiveWriter.Entry> entries = new ArrayList<>();
+        for (StoredFile file : session.getFiles()) {
+            entries.add(new ZipArchiveWriter.Entry(file.getName(), session.getPath().resolve(file.getName()),
+                    GzipFile.ENCODING.equals(file.getEncoding()),
+                    file.getCrc32() == null ? null : ContentHash.crc32Value(file.getCrc32())));
+        }
+        // The stream is flushed but not closed: the servlet container owns the response stream
+        zipWriter.write(entries, new BufferedOutputStream(out, ZIP_BUFFER_SIZE));
+        metrics.recordZip(System.nanoTime() - start);
 
-                for (String fileName : session.getFileNames()) {
-                    Path filePath = session.getPath().resolve(fileName);
-                    ZipEntry zipEntry = new ZipEntry(fileName);
-                    zos.putNextEntry(zipEntry);
-                    Files.copy(filePath, zos);
-                    zos.closeEntry();
-                }
-            }
+        EventLog.info("download.zip", "✅ ZIP streamed: {}", session.getId());
+    }
 
-            System.out.println("✅ ZIP created: " + formatSize(Files.size(zipPath)));
+    /**
+     * Streams the transfer's ZIP archive. With the archive cache on, it is built only
+     * once however many downloads ask for it at the same time; see ArchiveCache.
+     */
+    public void streamZip(TransferSession session, OutputStream out) throws IOException {
+        if (cachesArchive(session)) {
+            archiveCache.stream(session, out);
+        } else {
+            writeZip(session, out);
         }
+    }
 
-        return zipPath;
+    /**
+     * Size of the transfer's ZIP archive if it has already been built, otherwise -1.
+     */
+    public long getZipSize(TransferSession session) {
+        return cachesArchive(session) ? archiveCache.size(session.getId()) : -1;
     }
 
+    /**
+     * Whether the transfer's archive is kept on disk. A cached archive is a second copy
+     * of the transfer's content, which admission only sees once it is written, so the
+     * cache is off by default and only takes transfers up to a size.
+     */
+    private boolean cachesArchive(TransferSession session) {
+        return cacheArchives && session.getTotalSize() <= maxCachedTransfer.toBytes();
+    }
+
+    public String getZipFileName(TransferSession session) {
+        return "transfer_" + session.getId() + ".zip";
+    }
+
+    public TransferSession getTransferInfo(String transferId) {
+        return sessions.get(transferId);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeTransfers", activeTransfers.sum());
+        stats.put("totalDownloads", totalDownloads.sum());
+        stats.put("totalSize", totalBytes.sum());
+        stats.put("sessions", sessions.getMetrics());
+        stats.put("expiry", expiryIndex.getMetrics());
+        stats.put("transferIds", transferIds.getMetrics());
+        stats.put("reclamation", reclamationService.getMetrics());
+        stats.put("dedup", blobStore.getMetrics());
+        stats.put("archives", archiveCache.getMetrics());
+        stats.put("compression", Map.of(
+                "enabled", compressAtRest,
+                "filesCompressed", filesCompressed.sum(),
+                "bytesSaved", bytesSavedByCompression.sum()));
+        stats.put("admission", admission.getMetrics());
+        stats.put("rateLimit", rateLimiter.getMetrics());
+        stats.put("hotCache", hotCache.getMetrics());
+        stats.put("log", EventLog.getMetrics());
+        return stats;
+    }
+
+    /**
+     * Expires the transfers that are due. Only due entries of the expiry index are
+     * visited; their directories are handed to the reclamation service.
+     */
     private void cleanupExpiredSessions() {
-        int cleaned = 0;
-        List<String> toRemove = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            List<String> due = expiryIndex.pollDue(System.currentTimeMillis());
 
-        for (Map.Entry<String, TransferSession> entry : sessions.entrySet()) {
-            TransferSession session = entry.getValue();
-            if (session.isExpired()) {
-                toRemove.add(entry.getKey());
+            for (String transferId : due) {
+                TransferSession session = removeSession(transferId);
+                if (session != null) {
+                    reclamationService.reclaim(session.getPath());
+                }
             }
-        }
+            long elapsed = System.nanoTime() - start;
+            expiryIndex.recordSweepDuration(elapsed);
+            metrics.recordSweep(elapsed);
 
-        for (String transferId : toRemove) {
-            TransferSession session = sessions.remove(transferId);
-            try {
-                deleteDirectory(session.getPath());
-                cleaned++;
-                System.out.println("🧹 Cleaned expired transfer: " + transferId);
-            } catch (IOException e) {
-                System.err.println("❌ Failed to delete: " + transferId);
-                e.printStackTrace();
+            if (!due.isEmpty()) {
+                EventLog.info("expiry", "✅ Cleanup completed: {} transfers expired", due.size());
             }
-        }
-
-        if (cleaned > 0) {
-            System.out.println("✅ Cleanup completed: " + cleaned + " transfers removed");
+        } catch (Exception e) {
+            // An exception would cancel the scheduled sweep for good
+            EventLog.error("expiry", "❌ Expiry sweep failed: {}", e.getMessage());
         }
     }
 
-    private void deleteDirectory(Path path) throws IOException {
-        if (Files.exists(path)) {
-            Files.walk(path)
-                    .sorted((a, b) -> -a.compareTo(b))
-                    .forEach(p -> {
-                        try {
-                            Files.delete(p);
-                        } catch (IOException e) {
-                            System.err.println("Failed to delete: " + p);
-                        }
-                    });
+    /**
+     * Threads for the storage services' background I/O. In virtual-thread mode
+     * (spring.threads.virtual.enabled) these are virtual too, like request handling.
+     */
+    static ThreadFactory daemonThreads(String name, boolean virtual) {
+        if (virtual) {
+            return Thread.ofVirtual().name(name + "-", 1).factory();
         }
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
+    /**
+     * A fresh transfer ID, reserved until registerSession puts the session in the map.
+     * Callers that fail before that must release it.
+     */
     private String generateTransferId() {
-        return UUID.randomUUID().toString().substring(0, 8);
+        return transferIds.allocate(sessions::contains);
     }
 
-    private String sanitizeFileName(String fileName) {
+    public String sanitizeFileName(String fileName) {
         if (fileName == null) return "file";
         // Remove potentially dangerous characters
         return fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
     }
 
-    private String formatSize(long bytes) {
+    public String formatSize(long bytes) {
         if (bytes < 1024) return bytes + " B";
         int exp = (int) (Math.log(bytes) / Math.log(1024));
         String pre = "KMGT".charAt(exp - 1) + "";
@@ -0,0 +1,120 @@
+package com.sameerbasha1.shazam.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+
+/**
+ * Files kept gzip-compressed at rest.
+ *
+ * They are ordinary single-member gzip files that any gzip reader accepts, served as
+ * they are with Content-Encoding: gzip. The header carries an extra field ("SZ") with
+ * the original length, so the size of the content is known without inflating it, even
+ * past the 4 GB the gzip trailer can count.
+ */
+public final class GzipFile {
+
+    public static final String ENCODING = "gzip";
+
+    private static final int LEVEL = 6;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int FEXTRA = 0x04;
+    private static final int HEADER_SIZE = 10;
+    private static final int EXTRA_SIZE = 2 + 4 + 8; // XLEN, subfield id and length, original length
+    private static final int TRAILER_SIZE = 8;
+
+    /**
+     * Where the raw deflate stream sits in a gzip file, and what it decodes to.
+     */
+    public record Header(long originalSize, long dataOffset, long dataLength, long crc) {
+    }
+
+    private GzipFile() {
+    }
+
+    /**
+     * Compresses exactly size bytes from in into a new file at target, feeding the
+     * uncompressed bytes to hash on the way; its CRC32 goes into the trailer. Returns
+     * the size of the file written.
+     */
+    static long write(InputStream in, long size, Path target, ContentHash hash) throws IOException {
+        Deflater deflater = new Deflater(LEVEL, true);
+        long read = 0;
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), BUFFER_SIZE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + EXTRA_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 0x1f).put((byte) 0x8b).put((byte) Deflater.DEFLATED).put((byte) FEXTRA)
+                    .putInt(0) // No modification time
+                    .put((byte) 0).put((byte) 255) // Extra flags, unknown OS
+                    .putShort((short) (EXTRA_SIZE - 2))
+                    .put((byte) 'S').put((byte) 'Z').putShort((short) 8).putLong(size);
+            out.write(header.array());
+            long written = header.capacity();
+
+            byte[] input = new byte[BUFFER_SIZE];
+            byte[] output = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(input)) > 0) {
+                read += count;
+                hash.update(input, 0, count);
+                deflater.setInput(input, 0, count);
+                while (!deflater.needsInput()) {
+                    int produced = deflater.deflate(output);
+                    out.write(output, 0, produced);
+                    written += produced;
+                }
+            }
+            if (read != size) {
+                throw new IOException("Expected " + size + " bytes to compress, got " + read);
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int produced = deflater.deflate(output);
+                out.write(output, 0, produced);
+                written += produced;
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) hash.crc32Value()).putInt((int) size);
+            out.write(trailer.array());
+            return written + TRAILER_SIZE;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads the header and trailer of a file written by write().
+     */
+    public static Header read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + EXTRA_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (length < header.capacity() + TRAILER_SIZE
+                    || channel.read(header, 0) != header.capacity()
+                    || channel.read(trailer, length - TRAILER_SIZE) != TRAILER_SIZE) {
+                throw new IOException(file + " is not a compressed file");
+            }
+            if (header.getShort(0) != (short) 0x8b1f || header.get(3) != FEXTRA
+                    || header.get(12) != 'S' || header.get(13) != 'Z' || header.getShort(14) != 8) {
+                throw new IOException(file + " has no original length in its gzip header");
+            }
+            long dataOffset = header.capacity();
+            return new Header(header.getLong(16), dataOffset, length - dataOffset - TRAILER_SIZE,
+                    trailer.getInt(0) & 0xffffffffL);
+        }
+    }
+}
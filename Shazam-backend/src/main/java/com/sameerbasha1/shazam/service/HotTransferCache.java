@@ -0,0 +1,253 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.TransferSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small files and archives of hot transfers, held in memory outside the Java heap.
+ *
+ * A transfer is hot once it has been downloaded at least admit-after times in the last
+ * minute (see TransferSession.getRecentDownloads); until then lookups only miss. The
+ * next lookup reads the file into a direct ByteBuffer, and later downloads are written
+ * from that buffer without opening, stat-ing or reading the file. Entries are dropped
+ * when their transfer is removed, and the least recently used ones make room when the
+ * cache is full. Files found too large to cache are remembered, so they are only
+ * stat-ed once.
+ *
+ * Lookups are a ConcurrentHashMap get. A file is read by one download at a time, with
+ * no lock held; the others serve it from disk meanwhile. Only adding and evicting
+ * entries take the lock. Memory of a dropped entry goes back to the OS when its
+ * buffer is collected, which is why the capacity should stay well under
+ * -XX:MaxDirectMemorySize.
+ */
+@Service
+public class HotTransferCache {
+
+    // The archive of a transfer is cached under an empty name
+    private static final String ARCHIVE = "";
+
+    // 0 turns the cache off
+    @Value("${shazam.storage.hot-cache.capacity:64MB}")
+    private DataSize capacity;
+
+    @Value("${shazam.storage.hot-cache.max-file-size:1MB}")
+    private DataSize maxFileSize;
+
+    @Value("${shazam.storage.hot-cache.admit-after:3}")
+    private int admitAfter;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Keys being read into the cache, and keys too large for it
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final Set<String> oversized = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * A cached file: its bytes, and what the response headers need to know about it.
+     */
+    public static final class Entry {
+        private final String transferId;
+        private final Path path;
+        private final ByteBuffer content;
+        private final long lastModified;
+        private volatile long lastUsed;
+
+        private Entry(String transferId, Path path, ByteBuffer content, long lastModified) {
+            this.transferId = transferId;
+            this.path = path;
+            this.content = content;
+            this.lastModified = lastModified;
+            this.lastUsed = System.nanoTime();
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        public long length() {
+            return content.capacity();
+        }
+
+        public long lastModified() {
+            return lastModified;
+        }
+
+        /**
+         * A read-only view of count bytes from start, for one response to consume.
+         */
+        public ByteBuffer slice(long start, long count) {
+            return content.slice((int) start, (int) count);
+        }
+    }
+
+    public boolean isEnabled() {
+        return capacity.toBytes() > 0;
+    }
+
+    /**
+     * The single file of a transfer from the cache, or null if the transfer is not hot
+     * or the file is too large to cache.
+     */
+    public Entry file(TransferSession session, String name, Path file) {
+        return lookup(session, name, file);
+    }
+
+    /**
+     * The transfer's finished archive from the cache, or null if it is not cached (and
+     * not built yet, or the transfer is not hot).
+     */
+    public Entry archive(TransferSession session, Path archive) {
+        return lookup(session, ARCHIVE, archive);
+    }
+
+    /**
+     * Drops everything cached for a transfer.
+     */
+    public void evict(String transferId) {
+        if (!oversized.isEmpty()) {
+            oversized.removeIf(key -> key.startsWith(transferId + "/"));
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            entries.values().removeIf(entry -> {
+                if (!entry.transferId.equals(transferId)) {
+                    return false;
+                }
+                usedBytes -= entry.length();
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("enabled", isEnabled());
+        metrics.put("entries", entries.size());
+        metrics.put("oversized", oversized.size());
+        lock.lock();
+        try {
+            metrics.put("bytes", usedBytes);
+        } finally {
+            lock.unlock();
+        }
+        metrics.put("capacity", capacity.toBytes());
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("loads", loads.sum());
+        metrics.put("evictions", evictions.sum());
+        return metrics;
+    }
+
+    private Entry lookup(TransferSession session, String name, Path file) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = session.getId() + "/" + name;
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.lastUsed = System.nanoTime();
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        if (session.getRecentDownloads() < admitAfter || oversized.contains(key)) {
+            return null;
+        }
+        try {
+            return load(session, key, file);
+        } catch (IOException e) {
+            // Not built yet, or going away; the caller serves it from disk
+            return null;
+        }
+    }
+
+    private Entry load(TransferSession session, String key, Path file) throws IOException {
+        if (!loading.add(key)) {
+            return null; // Being read by another download
+        }
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                return entry; // Loaded by a download that got here first
+            }
+
+            long size = Files.size(file);
+            if (size > maxFileSize.toBytes() || size > capacity.toBytes() || size > Integer.MAX_VALUE) {
+                oversized.add(key);
+                return null;
+            }
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (content.hasRemaining()) {
+                    if (channel.read(content) < 0) {
+                        throw new IOException("File truncated while caching: " + file);
+                    }
+                }
+            }
+            entry = new Entry(session.getId(), file, content.flip().asReadOnlyBuffer(), lastModified);
+
+            lock.lock();
+            try {
+                // Removed while it was being read; eviction has already run
+                if (session.isRetired()) {
+                    return null;
+                }
+                makeRoom(size);
+                entries.put(key, entry);
+                usedBytes += size;
+            } finally {
+                lock.unlock();
+            }
+            loads.increment();
+            EventLog.debug("download.cache", "🔥 Cached {} ({} bytes) of hot transfer {}",
+                    file.getFileName(), size, session.getId());
+            return entry;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until size more bytes fit.
+     */
+    private void makeRoom(long size) {
+        while (usedBytes + size > capacity.toBytes() && !entries.isEmpty()) {
+            Map.Entry<String, Entry> coldest = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (coldest == null || candidate.getValue().lastUsed < coldest.getValue().lastUsed) {
+                    coldest = candidate;
+                }
+            }
+            entries.remove(coldest.getKey());
+            usedBytes -= coldest.getValue().length();
+            evictions.increment();
+        }
+    }
+}
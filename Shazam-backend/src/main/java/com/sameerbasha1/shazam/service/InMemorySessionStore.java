@@ -0,0 +1,115 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.TransferSession;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sessions in a ConcurrentHashMap of this process, recorded in a SessionJournal that
+ * only this process writes.
+ */
+public class InMemorySessionStore implements SessionStore {
+
+    protected final Map<String, TransferSession> sessions = new ConcurrentHashMap<>();
+    protected final Path journalFile;
+    protected SessionJournal journal;
+
+    public InMemorySessionStore(Path journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    @Override
+    public void open(Listener listener) throws IOException {
+        journal = SessionJournal.open(journalFile);
+        sessions.putAll(journal.replay());
+    }
+
+    @Override
+    public TransferSession get(String transferId) {
+        return sessions.get(transferId);
+    }
+
+    @Override
+    public boolean contains(String transferId) {
+        return sessions.containsKey(transferId);
+    }
+
+    @Override
+    public Collection<TransferSession> all() {
+        return sessions.values();
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void put(TransferSession session) throws IOException {
+        sessions.put(session.getId(), session);
+        journal.appendPut(session);
+    }
+
+    @Override
+    public TransferSession remove(String transferId) {
+        TransferSession session = sessions.remove(transferId);
+        if (session != null) {
+            journalRemove(transferId);
+        }
+        return session;
+    }
+
+    @Override
+    public int recordDownload(TransferSession session) throws IOException {
+        // Counted and recorded together, so a compaction in between can't record it twice
+        return journal.appendDownload(session.getId(), session::incrementDownloadCount);
+    }
+
+    @Override
+    public void maintain() {
+        try {
+            if (journal.needsCompaction(sessions.size())) {
+                compact();
+            } else {
+                journal.force();
+            }
+        } catch (Exception e) {
+            EventLog.error("journal", "❌ Session journal maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("store", "memory");
+        metrics.put("journalRecords", journal.getRecordCount());
+        metrics.put("journalBytes", journal.getSize());
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    protected void compact() throws IOException {
+        long before = journal.getRecordCount();
+        journal.compact(sessions.values());
+        EventLog.info("journal", "🗜️ Compacted session journal: {} → {} records", before, journal.getRecordCount());
+    }
+
+    protected void journalRemove(String transferId) {
+        try {
+            journal.appendRemove(transferId);
+        } catch (IOException e) {
+            EventLog.error("journal", "❌ Failed to journal removal of {}: {}", transferId, e.getMessage());
+        }
+    }
+}
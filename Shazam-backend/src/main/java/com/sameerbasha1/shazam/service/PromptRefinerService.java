@@ -17,7 +17,7 @@ public class PromptRefinerService {
             throw new IllegalArgumentException("Prompt cannot be empty");
         }
 
-        System.out.println("🔄 Refining prompt: " + originalPrompt.substring(0, Math.min(50, originalPrompt.length())) + "...");
+        EventLog.info("refine.start", "🔄 Refining prompt: {}...", originalPrompt.substring(0, Math.min(50, originalPrompt.length())));
 
         // Analyze the prompt
         List<String> improvements = new ArrayList<>();
@@ -63,7 +63,7 @@ public class PromptRefinerService {
         // Calculate quality score
         int qualityScore = calculateQualityScore(originalPrompt, refinedPrompt.toString());
 
-        System.out.println("✅ Refinement complete. Quality score: " + qualityScore + "/100");
+        EventLog.info("refine.done", "✅ Refinement complete. Quality score: {}/100", qualityScore);
 
         return new PromptResponse(
                 originalPrompt,
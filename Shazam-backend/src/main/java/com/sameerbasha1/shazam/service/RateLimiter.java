@@ -0,0 +1,256 @@
+package com.sameerbasha1.shazam.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client rate limits on the upload, download and refine endpoints: requests per
+ * second, and for transfers bytes per second.
+ *
+ * Every limit is a token bucket kept as a single timestamp (GCRA): the time at which
+ * the bucket would be full again. Taking n tokens moves it n intervals forward, and is
+ * refused if that puts it more than the burst ahead of now. That is one CAS on an
+ * AtomicLong, and buckets live in a ConcurrentHashMap, so no request waits on a lock.
+ * A bucket that has refilled is no different from a new one, so idle buckets are
+ * simply dropped by a periodic sweep.
+ *
+ * Bytes are charged once they are known - an upload's Content-Length before its body
+ * is read, a download's body when it is handed to the container - and may overdraw
+ * the bucket: a client is refused while it still owes more than the byte burst.
+ */
+@Service
+public class RateLimiter {
+
+    public enum Endpoint { UPLOAD, DOWNLOAD, REFINE }
+
+    /**
+     * The outcome of a check, with the request bucket's state for RateLimit headers.
+     */
+    public record Decision(boolean allowed, long limit, long remaining, long resetSeconds, long retryAfterSeconds) {
+    }
+
+    private static final long SWEEP_INTERVAL_MS = 10_000;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    @Value("${shazam.ratelimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${shazam.ratelimit.upload.requests-per-second:20}")
+    private double uploadRequests;
+
+    @Value("${shazam.ratelimit.upload.burst:200}")
+    private long uploadBurst;
+
+    // 0 turns a byte limit off
+    @Value("${shazam.ratelimit.upload.bytes-per-second:0}")
+    private DataSize uploadBytes;
+
+    @Value("${shazam.ratelimit.upload.byte-burst:1GB}")
+    private DataSize uploadByteBurst;
+
+    @Value("${shazam.ratelimit.download.requests-per-second:10}")
+    private double downloadRequests;
+
+    @Value("${shazam.ratelimit.download.burst:50}")
+    private long downloadBurst;
+
+    @Value("${shazam.ratelimit.download.bytes-per-second:0}")
+    private DataSize downloadBytes;
+
+    @Value("${shazam.ratelimit.download.byte-burst:1GB}")
+    private DataSize downloadByteBurst;
+
+    @Value("${shazam.ratelimit.refine.requests-per-second:1}")
+    private double refineRequests;
+
+    @Value("${shazam.ratelimit.refine.burst:10}")
+    private long refineBurst;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private final Map<Endpoint, Limit> requestLimits = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Limit> byteLimits = new EnumMap<>(Endpoint.class);
+    private final Map<Key, Buckets> buckets = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sweeper;
+
+    private final LongAdder allowed = new LongAdder();
+    private final Map<Endpoint, LongAdder> limited = new EnumMap<>(Endpoint.class);
+    private final LongAdder evicted = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        requestLimits.put(Endpoint.UPLOAD, Limit.of(uploadRequests, uploadBurst));
+        requestLimits.put(Endpoint.DOWNLOAD, Limit.of(downloadRequests, downloadBurst));
+        requestLimits.put(Endpoint.REFINE, Limit.of(refineRequests, refineBurst));
+        byteLimits.put(Endpoint.UPLOAD, Limit.of(uploadBytes.toBytes(), uploadByteBurst.toBytes()));
+        byteLimits.put(Endpoint.DOWNLOAD, Limit.of(downloadBytes.toBytes(), downloadByteBurst.toBytes()));
+        for (Endpoint endpoint : Endpoint.values()) {
+            limited.put(endpoint, new LongAdder());
+        }
+
+        if (enabled) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(
+                    FileStorageService.daemonThreads("rate-limit-sweeper", virtualThreads));
+            sweeper.scheduleWithFixedDelay(this::evictIdle, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Admits one request from a client, charging the bytes it brings (an upload's
+     * Content-Length) if it is admitted.
+     */
+    public Decision acquire(String client, Endpoint endpoint, long bytes) {
+        long now = System.nanoTime();
+        Buckets bucket = buckets.computeIfAbsent(new Key(client, endpoint), key -> new Buckets(now));
+        bucket.lastUsed = now;
+        Limit requests = requestLimits.get(endpoint);
+        Limit byteLimit = byteLimits.get(endpoint);
+
+        // Still paying off earlier transfers
+        if (byteLimit != null) {
+            long owed = bucket.bytes.get() - now;
+            if (owed > byteLimit.tolerance) {
+                limited.get(endpoint).increment();
+                long state = Math.max(bucket.requests.get(), now) - now;
+                return new Decision(false, requests != null ? requests.burst : 0, 0,
+                        seconds(state), seconds(owed - byteLimit.tolerance));
+            }
+        }
+
+        Decision decision = requests != null ? take(bucket.requests, requests, now)
+                : new Decision(true, 0, 0, 0, 0);
+        if (!decision.allowed()) {
+            limited.get(endpoint).increment();
+            return decision;
+        }
+        allowed.increment();
+        if (bytes > 0 && byteLimit != null) {
+            charge(bucket.bytes, byteLimit, bytes, now);
+        }
+        return decision;
+    }
+
+    /**
+     * Charges bytes a client was sent to its byte bucket for the endpoint.
+     */
+    public void charge(String client, Endpoint endpoint, long bytes) {
+        Limit byteLimit = byteLimits.get(endpoint);
+        if (byteLimit == null || bytes <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        Buckets bucket = buckets.computeIfAbsent(new Key(client, endpoint), key -> new Buckets(now));
+        bucket.lastUsed = now;
+        charge(bucket.bytes, byteLimit, bytes, now);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("buckets", buckets.size());
+        metrics.put("allowed", allowed.sum());
+        Map<String, Long> refused = new HashMap<>();
+        limited.forEach((endpoint, count) -> refused.put(endpoint.name().toLowerCase(), count.sum()));
+        metrics.put("limited", refused);
+        metrics.put("evicted", evicted.sum());
+        return metrics;
+    }
+
+    private static Decision take(AtomicLong bucket, Limit limit, long now) {
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + limit.interval;
+            if (next - now > limit.tolerance) {
+                long state = full - now;
+                return new Decision(false, limit.burst, 0, seconds(state), seconds(next - now - limit.tolerance));
+            }
+            if (bucket.compareAndSet(full, next)) {
+                long remaining = (limit.tolerance - (next - now)) / limit.interval;
+                return new Decision(true, limit.burst, remaining, seconds(next - now), 0);
+            }
+        }
+    }
+
+    private static void charge(AtomicLong bucket, Limit limit, long bytes, long now) {
+        long cost = (long) Math.min(Long.MAX_VALUE / 4.0, bytes * (double) limit.interval / limit.unit);
+        bucket.getAndUpdate(full -> Math.max(full, now) + cost);
+    }
+
+    /**
+     * Drops buckets that have refilled and not been used for a while. A request
+     * racing the removal may go uncounted, which is harmless.
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        buckets.forEach((key, bucket) -> {
+            if (bucket.requests.get() <= now && bucket.bytes.get() <= now && now - bucket.lastUsed > IDLE_NANOS
+                    && buckets.remove(key, bucket)) {
+                evicted.increment();
+            }
+        });
+    }
+
+    private static long seconds(long nanos) {
+        return nanos <= 0 ? 0 : (nanos + 999_999_999) / 1_000_000_000;
+    }
+
+    private record Key(String client, Endpoint endpoint) {
+    }
+
+    /**
+     * The request and byte buckets of one client and endpoint, as the time each is full.
+     */
+    private static final class Buckets {
+        final AtomicLong requests;
+        final AtomicLong bytes;
+        volatile long lastUsed;
+
+        Buckets(long now) {
+            requests = new AtomicLong(now);
+            bytes = new AtomicLong(now);
+            lastUsed = now;
+        }
+    }
+
+    /**
+     * A rate as the interval between tokens, with the burst as how far ahead of now
+     * the bucket may run. Byte rates are kept per unit of 1024 bytes so the interval
+     * stays a whole number of nanoseconds.
+     */
+    private record Limit(long interval, long tolerance, long burst, long unit) {
+
+        static Limit of(double perSecond, long burst) {
+            if (perSecond <= 0 || burst <= 0) {
+                return null;
+            }
+            long unit = perSecond > 1_000_000 ? 1024 : 1;
+            long interval = Math.max(1, (long) (1e9 * unit / perSecond));
+            return new Limit(interval, interval * Math.max(1, burst / unit), burst, unit);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.sameerbasha1.shazam.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes transfer and upload directories in the background.
+ *
+ * reclaim() renames the directory into uploads/.trash, which is a single cheap rename,
+ * so the caller returns at once and nothing can find the old path any more. A small
+ * pool then deletes the trash with bounded parallelism; a delete that fails is retried
+ * with backoff. Whatever is still in the trash at startup is picked up again.
+ */
+@Service
+public class ReclamationService {
+
+    private static final String TRASH_DIR = ".trash";
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 1000; // Doubled on every attempt
+    private static final long RATE_INTERVAL_MS = 5000;
+
+    @Value("${shazam.storage.upload-dir:uploads}")
+    private Path uploadDir;
+
+    @Value("${shazam.storage.reclaim-threads:2}")
+    private int threads;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private Path trashDir;
+    private ExecutorService workers;
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong reclaimedDirectories = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private volatile long bytesPerSecond;
+    private long lastSampledBytes;
+
+    @PostConstruct
+    public void init() {
+        try {
+            trashDir = uploadDir.resolve(TRASH_DIR);
+            Files.createDirectories(trashDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create trash directory", e);
+        }
+
+        workers = Executors.newFixedThreadPool(threads, FileStorageService.daemonThreads("reclaim", virtualThreads));
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                FileStorageService.daemonThreads("reclaim-scheduler", virtualThreads));
+        scheduler.scheduleAtFixedRate(this::sampleRate, RATE_INTERVAL_MS, RATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        // Finish deletions that were interrupted by a restart
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(trashDir)) {
+            for (Path dir : leftovers) {
+                submit(dir, 1);
+            }
+        } catch (IOException e) {
+            EventLog.error("reclaim", "❌ Failed to scan trash directory: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Queues a directory for deletion and returns immediately.
+     */
+    public void reclaim(Path dir) {
+        Path target = dir;
+        try {
+            target = trashDir.resolve(UUID.randomUUID().toString());
+            Files.move(dir, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            // Not on the same file store (or busy): delete it where it is
+            target = dir;
+        }
+        submit(target, 1);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("queueDepth", pending.get());
+        metrics.put("reclaimedDirectories", reclaimedDirectories.get());
+        metrics.put("reclaimedBytes", reclaimedBytes.get());
+        metrics.put("reclaimedBytesPerSecond", bytesPerSecond);
+        metrics.put("retries", retries.get());
+        metrics.put("abandoned", abandoned.get());
+        return metrics;
+    }
+
+    private void submit(Path dir, int attempt) {
+        pending.incrementAndGet();
+        try {
+            workers.execute(() -> run(dir, attempt));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the trash is picked up again on the next start
+            pending.decrementAndGet();
+        }
+    }
+
+    private void run(Path dir, int attempt) {
+        try {
+            reclaimedBytes.addAndGet(delete(dir));
+            reclaimedDirectories.incrementAndGet();
+        } catch (IOException e) {
+            if (attempt < MAX_ATTEMPTS) {
+                retries.incrementAndGet();
+                long delay = RETRY_DELAY_MS << (attempt - 1);
+                scheduler.schedule(() -> submit(dir, attempt + 1), delay, TimeUnit.MILLISECONDS);
+            } else {
+                abandoned.incrementAndGet();
+                EventLog.error("reclaim", "❌ Giving up deleting {} after {} attempts: {}", dir, attempt, e.getMessage());
+            }
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Deletes a directory tree and returns the number of file bytes freed. Keeps going
+     * past files it can't delete and throws the first failure at the end.
+     */
+    static long delete(Path dir) throws IOException {
+        long[] bytes = new long[1];
+        IOException[] failure = new IOException[1];
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                try {
+                    Files.delete(file);
+                    bytes[0] += attrs.size();
+                } catch (NoSuchFileException ignored) {
+                } catch (IOException e) {
+                    if (failure[0] == null) failure[0] = e;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                if (!(e instanceof NoSuchFileException) && failure[0] == null) failure[0] = e;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path subdir, IOException e) {
+                try {
+                    Files.delete(subdir);
+                } catch (NoSuchFileException ignored) {
+                } catch (IOException deleteFailure) {
+                    if (failure[0] == null) failure[0] = e != null ? e : deleteFailure;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return bytes[0];
+    }
+
+    private void sampleRate() {
+        long total = reclaimedBytes.get();
+        bytesPerSecond = (total - lastSampledBytes) * 1000 / RATE_INTERVAL_MS;
+        lastSampledBytes = total;
+    }
+}
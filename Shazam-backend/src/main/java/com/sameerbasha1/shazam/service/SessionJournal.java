@@ -0,0 +1,597 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.StoredFile;
+import com.sameerbasha1.shazam.model.TransferSession;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped log of session changes, so transfers survive a restart.
+ *
+ * Layout: a 16-byte header (magic, version) followed by records of
+ * [int length][int crc32c][byte type][payload]. A zero length marks the end of the
+ * log; a record with a bad checksum is treated as a torn write and ends replay there.
+ *
+ * Appends are a copy into the mapping; the OS writes them back and force() is called
+ * periodically. When most records are superseded the log is compacted into a fresh
+ * file holding one PUT per live session, which replaces the old one with a rename.
+ *
+ * Writers claim their place in the log with a CAS on the write cursor while holding
+ * the mapping shared; only growing, compacting and closing hold it exclusively. So
+ * downloads (appendDownload) are recorded without taking the monitor and don't queue
+ * behind each other.
+ *
+ * A journal opened with openShared() can be written by several processes at once.
+ * Every change to the file is made holding a lock on a sidecar lock file, after
+ * catching up with what the others appended (catchUp). Compaction leaves a marker at
+ * the end of the old file, so the others know to switch to the new one.
+ */
+public class SessionJournal implements Closeable {
+
+    private static final int MAGIC = 0x53485a4a; // "SHZJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 4 * 1024 * 1024;
+
+    // Compact once the log holds this many more records than there are live sessions
+    private static final long COMPACT_SLACK = 50_000;
+
+    // Written where the next record would go when the file has been replaced by compaction
+    private static final int MOVED = -1;
+
+    private static final byte PUT = 1;
+    private static final byte DOWNLOAD = 2;
+    private static final byte REMOVE = 3;
+
+    private final Path file;
+    private final FileChannel lockChannel;
+    // Held shared while a record is written into the mapping, exclusively while the mapping is replaced
+    private final StampedLock mapping = new StampedLock();
+    private boolean locked;
+    private FileChannel channel;
+    // Volatile for isBehind, which reads it without the monitor
+    private volatile MappedByteBuffer buffer;
+    private final AtomicInteger position = new AtomicInteger();
+    private final AtomicLong records = new AtomicLong();
+
+    /**
+     * A change to run while no other process can touch the journal.
+     */
+    public interface Update {
+        void run() throws IOException;
+    }
+
+    private SessionJournal(Path file, FileChannel lockChannel) {
+        this.file = file;
+        this.lockChannel = lockChannel;
+    }
+
+    public static SessionJournal open(Path file) throws IOException {
+        SessionJournal journal = new SessionJournal(file, null);
+        journal.map(Files.exists(file) ? Math.max(Files.size(file), INITIAL_CAPACITY) : INITIAL_CAPACITY);
+        return journal;
+    }
+
+    /**
+     * Opens a journal that other processes may have open at the same time.
+     */
+    public static SessionJournal openShared(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        FileChannel lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        SessionJournal journal = new SessionJournal(file, lockChannel);
+        journal.exclusive(() -> journal.map(
+                Files.exists(file) ? Math.max(Files.size(file), INITIAL_CAPACITY) : INITIAL_CAPACITY));
+        return journal;
+    }
+
+    /**
+     * Runs update holding the lock that keeps other processes from changing the file.
+     * Without other processes (open()) it just runs it.
+     */
+    public synchronized void exclusive(Update update) throws IOException {
+        if (lockChannel == null || locked) {
+            update.run();
+            return;
+        }
+        FileLock lock = lockChannel.lock();
+        try {
+            locked = true;
+            update.run();
+        } finally {
+            locked = false;
+            lock.release();
+        }
+    }
+
+    /**
+     * Rebuilds the live sessions from the log and positions the write cursor after
+     * the last intact record.
+     */
+    public synchronized Map<String, TransferSession> replay() throws IOException {
+        Map<String, TransferSession> sessions = new HashMap<>();
+        exclusive(() -> replay(sessions));
+        return sessions;
+    }
+
+    private void replay(Map<String, TransferSession> sessions) throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            // New (or unreadable) journal: start a fresh one
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            position.set(HEADER_SIZE);
+            records.set(0);
+            return;
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported session journal version " + version);
+        }
+
+        position.set(HEADER_SIZE);
+        records.set(0);
+        readRecords(sessions, null);
+
+        // Clear whatever a torn write left behind so it can't be mistaken for records later
+        int end = Math.min(buffer.capacity(), position.get() + RECORD_HEADER_SIZE + MAX_RECORD_SIZE);
+        for (int i = position.get(); i < end; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Applies the records other processes appended since this one last read or wrote
+     * the journal to sessions, telling listener what changed. Cheap when there are
+     * none: the lock is only taken when a record follows the write cursor.
+     */
+    public synchronized void catchUp(Map<String, TransferSession> sessions, SessionStore.Listener listener) throws IOException {
+        if (!isBehind()) {
+            return;
+        }
+        exclusive(() -> {
+            // Records may be followed by a MOVED marker, and the replacement may have been
+            // compacted again; follow them until the cursor is on the end of the log
+            while (true) {
+                if (buffer.getInt(position.get()) == MOVED) {
+                    reload(sessions, listener);
+                }
+                if (channel.size() > buffer.capacity()) {
+                    // Grown by another process
+                    unmap();
+                    map(channel.size());
+                }
+                readRecords(sessions, listener);
+                if (buffer.getInt(position.get()) != MOVED) {
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether another process has appended since this one last read or wrote the
+     * journal, so catchUp has something to do. Takes no lock.
+     */
+    public boolean isBehind() {
+        // The cursor first: the mapping read after it is at least as new as it
+        int at = position.get();
+        MappedByteBuffer mapped = buffer;
+        // While switching to a replacement file the cursor may not fit yet; catchUp sorts that out
+        return at + RECORD_HEADER_SIZE > mapped.capacity() || mapped.getInt(at) != 0;
+    }
+
+    /**
+     * Switches to the file that replaced this one and reconciles sessions with it.
+     * Sessions that are still there keep their objects.
+     */
+    private void reload(Map<String, TransferSession> sessions, SessionStore.Listener listener) throws IOException {
+        unmap();
+        map(Math.max(Files.size(file), INITIAL_CAPACITY));
+        Map<String, TransferSession> current = new HashMap<>();
+        replay(current);
+
+        for (TransferSession session : List.copyOf(sessions.values())) {
+            TransferSession replacement = current.get(session.getId());
+            if (replacement == null || !replacement.getPath().equals(session.getPath())) {
+                sessions.remove(session.getId());
+                listener.removed(session);
+            }
+        }
+        for (TransferSession session : current.values()) {
+            TransferSession known = sessions.get(session.getId());
+            if (known == null) {
+                sessions.put(session.getId(), session);
+                listener.added(session);
+            } else {
+                int added = known.raiseDownloadCount(session.getDownloadCount());
+                if (added > 0) {
+                    listener.downloaded(known, added);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies intact records from the write cursor on and leaves the cursor after them.
+     */
+    private void readRecords(Map<String, TransferSession> sessions, SessionStore.Listener listener) throws IOException {
+        int offset = position.get();
+        CRC32C crc = new CRC32C();
+        RecordReader reader = new RecordReader(buffer);
+
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > MAX_RECORD_SIZE || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(buffer.slice(offset + RECORD_HEADER_SIZE, length));
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                EventLog.warn("journal", "⚠️ Session journal ends in a torn record at offset {}", offset);
+                break;
+            }
+
+            reader.position = offset + RECORD_HEADER_SIZE;
+            apply(reader, sessions, listener);
+            offset += RECORD_HEADER_SIZE + length;
+            records.incrementAndGet();
+        }
+        position.set(offset);
+    }
+
+    public synchronized void appendPut(TransferSession session) throws IOException {
+        byte[] record = encodePut(session);
+        exclusive(() -> append(record, null));
+    }
+
+    /**
+     * Records downloads counted since the session was last recorded, as an increment:
+     * with several processes counting, totals would overwrite each other.
+     */
+    public synchronized void appendDownloads(String transferId, int downloads) throws IOException {
+        byte[] record = encodeDownloads(transferId, downloads);
+        exclusive(() -> append(record, null));
+    }
+
+    /**
+     * Counts a download with counter and records it, without the monitor the other
+     * appends take. Returns the count; a count of 0 or less is recorded as adding
+     * nothing. Only for a journal opened with open(): a shared one must be caught up
+     * first, under exclusive().
+     */
+    public int appendDownload(String transferId, IntSupplier counter) throws IOException {
+        if (lockChannel != null) {
+            throw new IllegalStateException("Downloads on a shared session journal are recorded under exclusive()");
+        }
+        return append(encodeDownloads(transferId, 1), counter);
+    }
+
+    public synchronized void appendRemove(String transferId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REMOVE);
+        writeString(out, transferId);
+        exclusive(() -> append(bytes.toByteArray(), null));
+    }
+
+    public boolean needsCompaction(int liveSessions) {
+        return records.get() > 2L * liveSessions + COMPACT_SLACK;
+    }
+
+    /**
+     * Rewrites the log with one record per live session and swaps it in atomically.
+     */
+    public synchronized void compact(Collection<TransferSession> liveSessions) throws IOException {
+        exclusive(() -> compactLocked(liveSessions));
+    }
+
+    private void compactLocked(Collection<TransferSession> liveSessions) throws IOException {
+        // Downloads wait, so each one is either in the snapshot or appended to the new file
+        long stamp = mapping.writeLock();
+        try {
+            compactMapped(liveSessions);
+        } finally {
+            mapping.unlockWrite(stamp);
+        }
+    }
+
+    private void compactMapped(Collection<TransferSession> liveSessions) throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream data = new DataOutputStream(
+                     new BufferedOutputStream(Channels.newOutputStream(out), 256 * 1024))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(0);
+
+            CRC32C crc = new CRC32C();
+            for (TransferSession session : liveSessions) {
+                byte[] record = encodePut(session);
+                crc.reset();
+                crc.update(record);
+                data.writeInt(record.length);
+                data.writeInt((int) crc.getValue());
+                data.write(record);
+            }
+            data.flush();
+            out.force(true);
+        }
+
+        if (lockChannel != null) {
+            // Other processes still map the old file; this sends them to the new one
+            buffer.putInt(position.get(), MOVED);
+        }
+        unmap();
+        Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        long size = Files.size(file);
+        map(Math.max(size * 2, INITIAL_CAPACITY));
+        position.set((int) size);
+        records.set(liveSessions.size());
+    }
+
+    public synchronized void force() {
+        long stamp = mapping.readLock();
+        try {
+            buffer.force();
+        } finally {
+            mapping.unlockRead(stamp);
+        }
+    }
+
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    public int getSize() {
+        return position.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        long stamp = mapping.writeLock();
+        try {
+            buffer.force();
+            unmap();
+        } finally {
+            mapping.unlockWrite(stamp);
+        }
+        if (lockChannel != null) {
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * Writes record after the last one and returns what counter returned. The place is
+     * claimed with a CAS on the write cursor, so concurrent writers don't wait for each
+     * other. counter, for a DOWNLOAD record, runs once the place is claimed and while
+     * the mapping is still held, so compaction sees a download either counted and
+     * recorded or neither; if it returns 0 or less the record adds no downloads.
+     */
+    private int append(byte[] record, IntSupplier counter) throws IOException {
+        if (record.length > MAX_RECORD_SIZE) {
+            throw new IOException("Session record too large: " + record.length + " bytes");
+        }
+        int needed = RECORD_HEADER_SIZE + record.length;
+        long stamp = mapping.readLock();
+        try {
+            int at;
+            while (true) {
+                at = position.get();
+                if (lockChannel != null && buffer.getInt(at) != 0) {
+                    // Another process appended since; writing here would overwrite its records
+                    throw new IllegalStateException("Session journal must be caught up before appending");
+                }
+                if ((long) at + needed + RECORD_HEADER_SIZE > buffer.capacity()) {
+                    mapping.unlockRead(stamp);
+                    try {
+                        grow((long) at + needed + RECORD_HEADER_SIZE);
+                    } finally {
+                        stamp = mapping.readLock();
+                    }
+                } else if (position.compareAndSet(at, at + needed)) {
+                    break;
+                }
+            }
+
+            int count = counter != null ? counter.getAsInt() : 0;
+            if (counter != null && count <= 0) {
+                ByteBuffer.wrap(record).putInt(record.length - 4, 0);
+            }
+
+            CRC32C crc = new CRC32C();
+            crc.update(record);
+
+            // Payload and checksum go in before the length, which is what makes the record visible
+            buffer.put(at + RECORD_HEADER_SIZE, record);
+            buffer.putInt(at + 4, (int) crc.getValue());
+            buffer.putInt(at, record.length);
+            records.incrementAndGet();
+            return count;
+        } finally {
+            mapping.unlockRead(stamp);
+        }
+    }
+
+    private void grow(long minimum) throws IOException {
+        long stamp = mapping.writeLock();
+        try {
+            long capacity = buffer.capacity();
+            if (capacity >= minimum) {
+                // Grown by another writer meanwhile
+                return;
+            }
+            while (capacity < minimum) {
+                capacity *= 2;
+            }
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IOException("Session journal exceeds 2 GB; compaction is falling behind");
+            }
+            buffer.force();
+            unmap();
+            map(capacity);
+        } finally {
+            mapping.unlockWrite(stamp);
+        }
+    }
+
+    private void map(long capacity) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void unmap() throws IOException {
+        // The mapping itself is released by the GC; closing the channel is enough here
+        channel.close();
+    }
+
+    private static byte[] encodeDownloads(String transferId, int downloads) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DOWNLOAD);
+        writeString(out, transferId);
+        // Last, so that append can zero it for a download that didn't count
+        out.writeInt(downloads);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodePut(TransferSession session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT);
+        writeString(out, session.getId());
+        writeString(out, session.getPath().toString());
+        out.writeLong(session.getExpiryTime());
+        out.writeLong(session.getCreatedAtMillis());
+        out.writeInt(session.getDownloadCount());
+        writeString(out, session.getUploaderIp() != null ? session.getUploaderIp() : "");
+        out.writeInt(session.getFiles().size());
+        for (StoredFile file : session.getFiles()) {
+            writeString(out, file.getName());
+            out.writeLong(file.getSize());
+            writeString(out, file.getSha256() != null ? file.getSha256() : "");
+            writeString(out, file.getEncoding() != null ? file.getEncoding() : "");
+            writeString(out, file.getCrc32() != null ? file.getCrc32() : "");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void apply(RecordReader in, Map<String, TransferSession> sessions,
+                              SessionStore.Listener listener) throws IOException {
+        byte type = in.readByte();
+
+        switch (type) {
+            case PUT -> {
+                String id = in.readString();
+                Path path = Paths.get(in.readString());
+                long expiryTime = in.readLong();
+                long createdAt = in.readLong();
+                int downloadCount = in.readInt();
+                String uploaderIp = in.readString();
+                int fileCount = in.readInt();
+                List<StoredFile> files = new ArrayList<>(fileCount);
+                for (int i = 0; i < fileCount; i++) {
+                    String name = in.readString();
+                    long size = in.readLong();
+                    String sha256 = in.readString();
+                    String encoding = in.readString();
+                    String crc32 = in.readString();
+                    files.add(new StoredFile(name, size, sha256.isEmpty() ? null : sha256,
+                            encoding.isEmpty() ? null : encoding, crc32.isEmpty() ? null : crc32));
+                }
+
+                TransferSession session = new TransferSession(id, path, files, expiryTime, createdAt, downloadCount);
+                session.setUploaderIp(uploaderIp.isEmpty() ? null : uploaderIp);
+                TransferSession previous = sessions.put(id, session);
+                if (listener != null) {
+                    if (previous != null) {
+                        listener.removed(previous);
+                    }
+                    listener.added(session);
+                }
+            }
+            case DOWNLOAD -> {
+                String id = in.readString();
+                int downloads = in.readInt();
+                TransferSession session = sessions.get(id);
+                if (session != null) {
+                    int added = session.addDownloads(downloads);
+                    if (added > 0 && listener != null) {
+                        listener.downloaded(session, added);
+                    }
+                }
+            }
+            case REMOVE -> {
+                TransferSession removed = sessions.remove(in.readString());
+                if (removed != null && listener != null) {
+                    listener.removed(removed);
+                }
+            }
+            default -> throw new IOException("Unknown session journal record type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Decodes a record in place from the mapping, without copying it out first.
+     */
+    private static final class RecordReader {
+        private final ByteBuffer buffer;
+        private int position;
+
+        RecordReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            return buffer.get(position++);
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+
+        long readLong() {
+            long value = buffer.getLong(position);
+            position += 8;
+            return value;
+        }
+
+        String readString() {
+            int length = buffer.getShort(position) & 0xffff;
+            byte[] bytes = new byte[length];
+            buffer.get(position + 2, bytes);
+            position += 2 + length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.TransferSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Where the live transfer sessions are kept, and recorded so they survive a restart.
+ *
+ * InMemorySessionStore (shazam.storage.session-store=memory, the default) keeps them in
+ * this process. SharedSessionStore (=shared) lets several backend processes on one
+ * host, started with the same upload directory, serve and expire the same transfers.
+ */
+public interface SessionStore extends Closeable {
+
+    /**
+     * Changes made by another process, so local indexes and counters can follow them.
+     */
+    interface Listener {
+        void added(TransferSession session);
+
+        void removed(TransferSession session);
+
+        void downloaded(TransferSession session, int downloads);
+    }
+
+    /**
+     * Loads the recorded sessions; listener hears about later changes from elsewhere.
+     */
+    void open(Listener listener) throws IOException;
+
+    TransferSession get(String transferId);
+
+    boolean contains(String transferId);
+
+    Collection<TransferSession> all();
+
+    int size();
+
+    /**
+     * Adds a session, or replaces the one with the same ID (e.g. after its files moved).
+     */
+    void put(TransferSession session) throws IOException;
+
+    /**
+     * Removes a session and returns it, or null if it was already gone - in which case
+     * whoever removed it is responsible for its files.
+     */
+    TransferSession remove(String transferId);
+
+    /**
+     * Counts a download of the session and records it; returns the new count, or -1 if
+     * the session was already retired and the download no longer counts.
+     */
+    int recordDownload(TransferSession session) throws IOException;
+
+    /**
+     * Periodic upkeep: flushing and compacting the record, and picking up changes.
+     */
+    void maintain();
+
+    Map<String, Object> getMetrics();
+}
@@ -0,0 +1,177 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.TransferSession;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sessions shared by every backend process on the host that uses the same upload
+ * directory, through one journal they all read and append to (SessionJournal.openShared).
+ *
+ * Each process keeps the sessions in memory as before and brings them up to date from
+ * the journal: before each change it makes, when a lookup misses and the journal has
+ * grown (a transfer uploaded through another process), and on every maintenance tick.
+ * A new session whose ID another process registered meanwhile is refused. A removal
+ * only counts for the process whose REMOVE made it into the journal first, so a
+ * transfer's files are reclaimed once however many processes expire it.
+ *
+ * The listener hears what catching up changed only once the journal lock has been
+ * released, so its callbacks never run while other processes wait on the journal.
+ */
+public class SharedSessionStore extends InMemorySessionStore {
+
+    private Listener listener;
+
+    public SharedSessionStore(Path journalFile) {
+        super(journalFile);
+    }
+
+    @Override
+    public void open(Listener listener) throws IOException {
+        this.listener = listener;
+        journal = SessionJournal.openShared(journalFile);
+        sessions.putAll(journal.replay());
+    }
+
+    @Override
+    public TransferSession get(String transferId) {
+        TransferSession session = sessions.get(transferId);
+        if (session == null && journal.isBehind()) {
+            catchUp();
+            session = sessions.get(transferId);
+        }
+        return session;
+    }
+
+    @Override
+    public boolean contains(String transferId) {
+        return get(transferId) != null;
+    }
+
+    @Override
+    public void put(TransferSession session) throws IOException {
+        boolean replacing = sessions.containsKey(session.getId());
+        Changes changes = new Changes();
+        try {
+            journal.exclusive(() -> {
+                journal.catchUp(sessions, changes);
+                if (!replacing && sessions.containsKey(session.getId())) {
+                    throw new IllegalStateException("Transfer ID " + session.getId() + " was taken by another process");
+                }
+                sessions.put(session.getId(), session);
+                journal.appendPut(session);
+            });
+        } finally {
+            changes.deliver();
+        }
+    }
+
+    @Override
+    public TransferSession remove(String transferId) {
+        TransferSession[] removed = new TransferSession[1];
+        Changes changes = new Changes();
+        try {
+            journal.exclusive(() -> {
+                journal.catchUp(sessions, changes);
+                removed[0] = sessions.remove(transferId);
+                if (removed[0] != null) {
+                    journalRemove(transferId);
+                }
+            });
+        } catch (IOException e) {
+            // Not caught up; remove it here and let the others find out on their own
+            EventLog.error("journal", "❌ Failed to read session journal: {}", e.getMessage());
+            removed[0] = sessions.remove(transferId);
+        } finally {
+            changes.deliver();
+        }
+        return removed[0];
+    }
+
+    @Override
+    public int recordDownload(TransferSession session) throws IOException {
+        int[] count = new int[1];
+        Changes changes = new Changes();
+        try {
+            journal.exclusive(() -> {
+                journal.catchUp(sessions, changes);
+                count[0] = session.incrementDownloadCount();
+                if (count[0] > 0) {
+                    journal.appendDownloads(session.getId(), 1);
+                }
+            });
+        } finally {
+            changes.deliver();
+        }
+        return count[0];
+    }
+
+    @Override
+    public void maintain() {
+        Changes changes = new Changes();
+        try {
+            journal.exclusive(() -> {
+                journal.catchUp(sessions, changes);
+                if (journal.needsCompaction(sessions.size())) {
+                    compact();
+                } else {
+                    journal.force();
+                }
+            });
+        } catch (Exception e) {
+            EventLog.error("journal", "❌ Session journal maintenance failed: {}", e.getMessage());
+        } finally {
+            changes.deliver();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = super.getMetrics();
+        metrics.put("store", "shared");
+        return metrics;
+    }
+
+    private void catchUp() {
+        Changes changes = new Changes();
+        try {
+            journal.catchUp(sessions, changes);
+        } catch (IOException e) {
+            EventLog.error("journal", "❌ Failed to read session journal: {}", e.getMessage());
+        } finally {
+            changes.deliver();
+        }
+    }
+
+    /**
+     * What catching up changed, held back until the journal lock is released.
+     */
+    private class Changes implements Listener {
+        private final List<Runnable> changes = new ArrayList<>();
+
+        @Override
+        public void added(TransferSession session) {
+            changes.add(() -> listener.added(session));
+        }
+
+        @Override
+        public void removed(TransferSession session) {
+            changes.add(() -> listener.removed(session));
+        }
+
+        @Override
+        public void downloaded(TransferSession session, int downloads) {
+            changes.add(() -> listener.downloaded(session, downloads));
+        }
+
+        void deliver() {
+            for (Runnable change : changes) {
+                change.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.sameerbasha1.shazam.service;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Allocates transfer IDs: a fixed number of base62 characters from a CSPRNG, since the
+ * ID is all it takes to download a transfer. An ID is checked against the live
+ * transfers and reserved until its transfer is registered, so two uploads can never
+ * be given the same one.
+ *
+ * Random bytes come from a few DRBG instances picked by thread ID, so uploads don't all
+ * queue on one generator. They are striped rather than kept per thread because with
+ * virtual threads every request would seed a generator of its own.
+ */
+public final class TransferIdAllocator {
+
+    private static final char[] ALPHABET =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final int MIN_LENGTH = 6;
+
+    private final int length;
+    private final SecureRandom[] generators;
+    private final Set<String> reserved = ConcurrentHashMap.newKeySet();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+
+    public TransferIdAllocator(int length, int stripes) {
+        if (length < MIN_LENGTH) {
+            throw new IllegalArgumentException("Transfer IDs need at least " + MIN_LENGTH + " characters, got " + length);
+        }
+        this.length = length;
+        this.generators = new SecureRandom[Math.max(1, stripes)];
+        for (int i = 0; i < generators.length; i++) {
+            generators[i] = newGenerator();
+        }
+    }
+
+    /**
+     * Returns a fresh ID that taken() rejects and no other caller holds, reserved until
+     * release(). taken() is checked again after reserving, so an ID whose transfer was
+     * registered in the meantime is not handed out twice.
+     */
+    public String allocate(Predicate<String> taken) {
+        while (true) {
+            String id = next();
+            if (!taken.test(id) && reserved.add(id)) {
+                if (!taken.test(id)) {
+                    allocated.increment();
+                    return id;
+                }
+                reserved.remove(id);
+            }
+            collisions.increment();
+        }
+    }
+
+    /**
+     * Gives up the reservation once the transfer is registered, or was never created.
+     */
+    public void release(String id) {
+        reserved.remove(id);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("length", length);
+        metrics.put("allocated", allocated.sum());
+        metrics.put("collisions", collisions.sum());
+        metrics.put("reserved", reserved.size());
+        return metrics;
+    }
+
+    private String next() {
+        SecureRandom random = generators[(int) (Thread.currentThread().threadId() % generators.length)];
+        char[] id = new char[length];
+        // Six bits per character; values past the alphabet are redrawn to keep it uniform
+        byte[] bytes = new byte[length + length / 4 + 1];
+        int filled = 0;
+        while (filled < length) {
+            random.nextBytes(bytes);
+            for (int i = 0; i < bytes.length && filled < length; i++) {
+                int value = bytes[i] & 0x3f;
+                if (value < ALPHABET.length) {
+                    id[filled++] = ALPHABET[value];
+                }
+            }
+        }
+        return new String(id);
+    }
+
+    private static SecureRandom newGenerator() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.sameerbasha1.shazam.service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Where transfer directories live under the upload directory: two levels of fan-out,
+ * uploads/ab/cd/<transferId>, so that no directory holds more than a few dozen
+ * transfers even at millions of them and creating, looking up and deleting one stays
+ * cheap.
+ *
+ * The shard comes from a hash of the ID rather than its first characters, so the
+ * fan-out stays even whatever alphabet IDs are drawn from. IDs differing only in case
+ * usually hash to different shards, but nothing guarantees it, so a case-insensitive
+ * filesystem can still put two of them in one directory.
+ * Transfers stored before the fan-out sit directly in the upload directory; they are
+ * moved at startup (see FileStorageService) and are still recognised until then.
+ */
+public final class TransferLayout {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public interface DirectoryVisitor {
+        void visit(Path dir) throws IOException;
+    }
+
+    private final Path root;
+
+    public TransferLayout(Path root) {
+        this.root = root;
+    }
+
+    public Path dirOf(String transferId) {
+        // Fibonacci hashing spreads String.hashCode's weak low bits over the top 16
+        int hash = transferId.hashCode() * 0x9E3779B9;
+        String first = new String(new char[]{HEX[(hash >>> 28) & 0xf], HEX[(hash >>> 24) & 0xf]});
+        String second = new String(new char[]{HEX[(hash >>> 20) & 0xf], HEX[(hash >>> 16) & 0xf]});
+        return root.resolve(first).resolve(second).resolve(transferId);
+    }
+
+    /**
+     * Whether the directory is where the layout puts the transfer, as opposed to
+     * where an older layout did.
+     */
+    public boolean isInPlace(String transferId, Path dir) {
+        return dirOf(transferId).equals(dir);
+    }
+
+    /**
+     * Visits every transfer directory on disk, sharded or left over from the flat
+     * layout. Entries starting with a dot are the storage services' own.
+     */
+    public void forEachTransferDir(DirectoryVisitor visitor) throws IOException {
+        try (DirectoryStream<Path> top = Files.newDirectoryStream(root)) {
+            for (Path entry : top) {
+                String name = entry.getFileName().toString();
+                if (name.startsWith(".") || !Files.isDirectory(entry)) {
+                    continue;
+                }
+                if (!isShard(name)) {
+                    visitor.visit(entry);
+                    continue;
+                }
+                try (DirectoryStream<Path> shards = Files.newDirectoryStream(entry)) {
+                    for (Path shard : shards) {
+                        if (!isShard(shard.getFileName().toString())) {
+                            continue;
+                        }
+                        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(shard)) {
+                            for (Path dir : dirs) {
+                                if (Files.isDirectory(dir)) {
+                                    visitor.visit(dir);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isShard(String name) {
+        return name.length() == 2 && isHex(name.charAt(0)) && isHex(name.charAt(1));
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+}
@@ -0,0 +1,132 @@
+package com.sameerbasha1.shazam.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms for the transfer hot paths, scraped from /actuator/prometheus.
+ *
+ * Every meter publishes a percentile histogram with fixed buckets, so recording is
+ * cheap, and p99s are computed on the Prometheus side with histogram_quantile, which
+ * also aggregates correctly across instances.
+ */
+@Component
+public class TransferMetrics {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private DistributionSummary uploadThroughput;
+    private Timer fileWrite;
+    private Timer zipStream;
+    private Timer fileFirstByte;
+    private Timer zipFirstByte;
+    private Timer expirySweep;
+    private Timer refinement;
+
+    @PostConstruct
+    public void init() {
+        uploadThroughput = DistributionSummary.builder("shazam.upload.throughput")
+                .description("Upload rate per request, body received to stored")
+                .baseUnit("bytes_per_second")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1024.0)
+                .maximumExpectedValue(10.0 * 1024 * 1024 * 1024)
+                .register(registry);
+        fileWrite = histogram("shazam.upload.file.write", "Time to move one uploaded file into its transfer and hash it")
+                .register(registry);
+        zipStream = histogram("shazam.download.zip", "Time to stream a whole transfer as a ZIP archive")
+                .maximumExpectedValue(Duration.ofHours(1))
+                .register(registry);
+        fileFirstByte = histogram("shazam.download.ttfb", "Time from request to the first body byte on /api/d/{id}")
+                .tag("type", "file")
+                .register(registry);
+        zipFirstByte = histogram("shazam.download.ttfb", "Time from request to the first body byte on /api/d/{id}")
+                .tag("type", "zip")
+                .register(registry);
+        expirySweep = histogram("shazam.expiry.sweep", "Duration of one expiry sweep")
+                .register(registry);
+        refinement = histogram("shazam.refine", "Prompt refinement latency")
+                .register(registry);
+    }
+
+    private static Timer.Builder histogram(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofMinutes(1));
+    }
+
+    /**
+     * Records an upload of the given size that took the given time, request start to stored.
+     */
+    public void recordUpload(long bytes, long nanos) {
+        if (bytes > 0 && nanos > 0) {
+            uploadThroughput.record(bytes * 1e9 / nanos);
+        }
+    }
+
+    public void recordFileWrite(long nanos) {
+        fileWrite.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordZip(long nanos) {
+        zipStream.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordFileFirstByte(long requestStartNanos) {
+        fileFirstByte.record(System.nanoTime() - requestStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordZipFirstByte(long requestStartNanos) {
+        zipFirstByte.record(System.nanoTime() - requestStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSweep(long nanos) {
+        expirySweep.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRefinement(long nanos) {
+        refinement.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Wraps a response stream so the time to its first write is recorded as the ZIP
+     * download's time to first byte.
+     */
+    public OutputStream timeZipFirstByte(OutputStream out, long requestStartNanos) {
+        return new FilterOutputStream(out) {
+            private boolean started;
+
+            @Override
+            public void write(int b) throws IOException {
+                firstByte();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                firstByte();
+                out.write(b, off, len);
+            }
+
+            private void firstByte() {
+                if (!started) {
+                    started = true;
+                    zipFirstByte.record(System.nanoTime() - requestStartNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,169 @@
+package com.sameerbasha1.shazam.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for uploads, so a burst is turned away up front instead of
+ * filling the disk and failing transfers halfway through.
+ *
+ * An upload reserves its declared size before its body is read. It is admitted while
+ * the space used on the upload filesystem plus all reservations stays under the
+ * high-water mark. Over the mark it waits in a short, bounded queue for running uploads
+ * to finish, and is rejected if none does in time. A running upload is counted twice
+ * - reserved, and on disk as it is written - so the check errs on the safe side.
+ */
+@Service
+public class UploadAdmission {
+
+    @Value("${shazam.storage.upload-dir:uploads}")
+    private Path uploadDir;
+
+    // Fraction of the upload filesystem that may be in use, reservations included
+    @Value("${shazam.storage.admission.high-water:0.9}")
+    private double highWater;
+
+    @Value("${shazam.storage.admission.queue-size:16}")
+    private int queueSize;
+
+    @Value("${shazam.storage.admission.max-wait-ms:2000}")
+    private long maxWaitMs;
+
+    @Value("${shazam.storage.admission.retry-after-seconds:30}")
+    private int retryAfterSeconds;
+
+    private FileStore fileStore;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long reservedBytes;
+    private int inFlight;
+    private int waiting;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(uploadDir);
+        fileStore = Files.getFileStore(uploadDir);
+    }
+
+    /**
+     * One admitted upload's claim on the disk; closing it gives the claim back.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final long bytes;
+        private boolean closed;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    reservedBytes -= bytes;
+                    inFlight--;
+                    released.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reserves room for an upload of the given size, waiting briefly if the disk is
+     * busy. Returns null if the upload should be turned away.
+     */
+    public Reservation reserve(long bytes) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            long limit = (long) (fileStore.getTotalSpace() * highWater);
+            if (fits(bytes, limit)) {
+                return admit(bytes);
+            }
+            // Waiting only helps if the upload would fit once the running ones are done
+            if (used() + bytes > limit || waiting >= queueSize) {
+                rejected.increment();
+                return null;
+            }
+
+            queued.increment();
+            waiting++;
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                while (!fits(bytes, limit)) {
+                    if (remaining <= 0) {
+                        rejected.increment();
+                        return null;
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+            } finally {
+                waiting--;
+            }
+            return admit(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        lock.lock();
+        try {
+            metrics.put("reservedBytes", reservedBytes);
+            metrics.put("inFlight", inFlight);
+            metrics.put("queued", waiting);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            metrics.put("usedBytes", used());
+            metrics.put("limitBytes", (long) (fileStore.getTotalSpace() * highWater));
+        } catch (IOException e) {
+            metrics.put("usedBytes", -1);
+        }
+        metrics.put("admitted", admitted.sum());
+        metrics.put("queuedTotal", queued.sum());
+        metrics.put("rejected", rejected.sum());
+        return metrics;
+    }
+
+    private boolean fits(long bytes, long limit) throws IOException {
+        return used() + reservedBytes + bytes <= limit;
+    }
+
+    private long used() throws IOException {
+        return fileStore.getTotalSpace() - fileStore.getUsableSpace();
+    }
+
+    private Reservation admit(long bytes) {
+        reservedBytes += bytes;
+        inFlight++;
+        admitted.increment();
+        return new Reservation(bytes);
+    }
+}
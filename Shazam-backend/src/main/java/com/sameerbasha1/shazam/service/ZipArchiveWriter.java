@@ -0,0 +1,598 @@
+package com.sameerbasha1.shazam.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes ZIP archives with entries compressed in parallel.
+ *
+ * Entries that won't get smaller - by file type, or because a deflated sample of their
+ * start barely shrinks - are STORED, with the CRC32 recorded when the file was uploaded;
+ * only files stored before it was recorded need a CRC pass first. The others are
+ * cut into blocks that are deflated independently on the pool, the way pigz does it:
+ * each block is primed with the last 32 KB of the one before as its dictionary, so the
+ * ratio stays close to single-threaded deflate, and ends on a sync flush, so the blocks
+ * concatenate into one deflate stream. Their CRCs are combined in order.
+ *
+ * Blocks are written in order as they complete, with at most a few per pool thread
+ * held in memory. Deflated entries carry their sizes and CRC in a data descriptor, as
+ * ZipOutputStream does; ZIP64 records are used for entries and archives over 4 GB or
+ * with more than 65535 entries.
+ *
+ * Files kept gzip-compressed at rest already hold a raw deflate stream with its CRC;
+ * it is copied into the archive as it is, without inflating or deflating anything.
+ */
+public class ZipArchiveWriter {
+
+    /**
+     * A file to archive; crc32 is the checksum of its content if it is known, or null.
+     */
+    public record Entry(String name, Path path, boolean gzipped, Long crc32) {
+        public Entry(String name, Path path) {
+            this(name, path, false, null);
+        }
+    }
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    // Deflate can grow incompressible input slightly; leave room so the local header
+    // decision (ZIP64 or not) holds for the compressed size too
+    private static final long ZIP64_THRESHOLD = ZIP64_MAGIC - 64L * 1024 * 1024;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private final ExecutorService pool;
+    private final int parallelism;
+
+    public ZipArchiveWriter(ExecutorService pool, int parallelism) {
+        this.pool = pool;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Writes the entries as a ZIP archive to out, which is flushed but not closed.
+     */
+    public void write(List<Entry> entries, OutputStream out) throws IOException {
+        List<Planned> plan = plan(entries);
+        CountingOutput output = new CountingOutput(out);
+        Pipeline pipeline = new Pipeline(plan);
+
+        try {
+            for (Planned entry : plan) {
+                entry.offset = output.count;
+                if (entry.gzip != null) {
+                    writeLocalHeader(output, entry);
+                    copy(entry.path, entry.gzip.dataOffset(), entry.compressedSize, output);
+                    continue;
+                }
+                if (entry.method == METHOD_STORED) {
+                    if (!entry.checksummed) {
+                        entry.crc = pipeline.take().crc;
+                    }
+                    entry.compressedSize = entry.size;
+                    writeLocalHeader(output, entry);
+                    copy(entry.path, 0, entry.size, output);
+                    continue;
+                }
+
+                writeLocalHeader(output, entry);
+                long crc = 0;
+                long compressed = 0;
+                for (long block = 0; block < entry.blocks(); block++) {
+                    Block deflated = pipeline.take();
+                    output.write(deflated.data, 0, deflated.data.length);
+                    crc = block == 0 ? deflated.crc : Crc32.combine(crc, deflated.crc, deflated.length);
+                    compressed += deflated.data.length;
+                }
+                entry.crc = crc;
+                entry.compressedSize = compressed;
+                writeDataDescriptor(output, entry);
+            }
+            writeCentralDirectory(output, plan);
+            output.flush();
+        } finally {
+            pipeline.cancel();
+        }
+    }
+
+    /**
+     * Blocks of all entries in archive order, submitted to the pool a bounded distance
+     * ahead of the one being written.
+     */
+    private final class Pipeline {
+        private final List<Planned> plan;
+        private final ArrayDeque<Future<Block>> window = new ArrayDeque<>();
+        private final int maxInFlight = parallelism * BLOCKS_IN_FLIGHT_PER_THREAD;
+        private int nextEntry;
+        private long nextBlock;
+
+        Pipeline(List<Planned> plan) {
+            this.plan = plan;
+        }
+
+        /**
+         * The next block (for a stored entry, its checksum), waiting for it if needed.
+         */
+        Block take() throws IOException {
+            while (nextEntry < plan.size() && window.size() < maxInFlight) {
+                Planned entry = plan.get(nextEntry);
+                if (entry.blocks() == 0) {
+                    nextEntry++;
+                    continue;
+                }
+                long block = nextBlock;
+                Callable<Block> task = entry.method == METHOD_STORED
+                        ? () -> checksum(entry.path)
+                        : () -> deflate(entry, block);
+                window.add(pool.submit(task));
+                if (++nextBlock >= entry.blocks()) {
+                    nextEntry++;
+                    nextBlock = 0;
+                }
+            }
+            return await(window.poll());
+        }
+
+        void cancel() {
+            for (Future<Block> pending : window) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Classifies the entries, sampling the ones whose type doesn't decide it, in parallel.
+     */
+    private List<Planned> plan(List<Entry> entries) throws IOException {
+        List<Future<Planned>> classified = new ArrayList<>();
+        for (Entry entry : entries) {
+            classified.add(pool.submit(() -> {
+                long modified = Files.getLastModifiedTime(entry.path()).toMillis();
+                if (entry.gzipped()) {
+                    GzipFile.Header gzip = GzipFile.read(entry.path());
+                    Planned planned = new Planned(entry.name(), entry.path(), gzip.originalSize(), modified, METHOD_DEFLATED);
+                    planned.gzip = gzip;
+                    planned.crc = gzip.crc();
+                    planned.compressedSize = gzip.dataLength();
+                    return planned;
+                }
+                long size = Files.size(entry.path());
+                int method = worthCompressing(entry) ? METHOD_DEFLATED : METHOD_STORED;
+                Planned planned = new Planned(entry.name(), entry.path(), size, modified, method);
+                if (method == METHOD_STORED && entry.crc32() != null) {
+                    planned.crc = entry.crc32();
+                    planned.checksummed = true;
+                }
+                return planned;
+            }));
+        }
+        List<Planned> plan = new ArrayList<>();
+        for (Future<Planned> entry : classified) {
+            plan.add(await(entry));
+        }
+        return plan;
+    }
+
+    private static boolean worthCompressing(Entry entry) throws IOException {
+        if (Compressibility.isCompressedType(entry.name())) {
+            return false;
+        }
+        byte[] sample = new byte[Compressibility.SAMPLE_SIZE];
+        int length = read(entry.path(), 0, sample, sample.length);
+        return Compressibility.worthCompressing(sample, length);
+    }
+
+    /**
+     * Deflates one block of an entry into a piece of raw deflate stream.
+     */
+    private static Block deflate(Planned entry, long block) throws IOException {
+        long start = block * BLOCK_SIZE;
+        int length = (int) Math.min(BLOCK_SIZE, entry.size - start);
+        int dictionaryLength = (int) Math.min(DICTIONARY_SIZE, start);
+
+        byte[] input = new byte[dictionaryLength + length];
+        int read = read(entry.path, start - dictionaryLength, input, input.length);
+        if (read != input.length) {
+            throw new IOException(entry.path + " changed while it was being archived");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(input, dictionaryLength, length);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionaryLength > 0) {
+                deflater.setDictionary(input, 0, dictionaryLength);
+            }
+            deflater.setInput(input, dictionaryLength, length);
+            boolean last = start + length >= entry.size;
+            if (last) {
+                deflater.finish();
+            }
+
+            ByteArrayBuilder output = new ByteArrayBuilder(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                int produced = deflater.deflate(buffer, 0, buffer.length,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                output.append(buffer, produced);
+                if (last ? deflater.finished() : produced < buffer.length && deflater.needsInput()) {
+                    break;
+                }
+            }
+            return new Block(output.toByteArray(), crc.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static Block checksum(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                length += buffer.remaining();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return new Block(null, crc.getValue(), length);
+    }
+
+    private static int read(Path path, long position, byte[] into, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(into, 0, length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        return buffer.position();
+    }
+
+    private static void copy(Path path, long position, long count, CountingOutput output) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(output);
+            long end = position + count;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, target);
+                if (sent <= 0) {
+                    throw new IOException(path + " changed while it was being archived");
+                }
+                position += sent;
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Compressing archive entry failed", e.getCause());
+        }
+    }
+
+    // ZIP records (APPNOTE.TXT 4.3)
+
+    private static void writeLocalHeader(CountingOutput out, Planned entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = entry.size >= ZIP64_THRESHOLD;
+        boolean known = !entry.usesDataDescriptor();
+
+        out.writeInt(0x04034b50);
+        out.writeShort(zip64 ? 45 : 20);
+        out.writeShort(FLAG_UTF8 | (known ? 0 : FLAG_DATA_DESCRIPTOR));
+        out.writeShort(entry.method);
+        out.writeInt(dosTime(entry.modified));
+        // Entries deflated here get CRC and sizes in the data descriptor
+        out.writeInt(known ? entry.crc : 0);
+        out.writeInt(zip64 ? ZIP64_MAGIC : known ? entry.compressedSize : 0);
+        out.writeInt(zip64 ? ZIP64_MAGIC : known ? entry.size : 0);
+        out.writeShort(name.length);
+        out.writeShort(zip64 ? 20 : 0);
+        out.write(name, 0, name.length);
+        if (zip64) {
+            out.writeShort(0x0001);
+            out.writeShort(16);
+            out.writeLong(known ? entry.size : 0);
+            out.writeLong(known ? entry.compressedSize : 0);
+        }
+    }
+
+    private static void writeDataDescriptor(CountingOutput out, Planned entry) throws IOException {
+        out.writeInt(0x08074b50);
+        out.writeInt(entry.crc);
+        if (entry.size >= ZIP64_THRESHOLD) {
+            out.writeLong(entry.compressedSize);
+            out.writeLong(entry.size);
+        } else {
+            out.writeInt(entry.compressedSize);
+            out.writeInt(entry.size);
+        }
+    }
+
+    private static void writeCentralDirectory(CountingOutput out, List<Planned> entries) throws IOException {
+        long start = out.count;
+        for (Planned entry : entries) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            boolean descriptor = entry.usesDataDescriptor();
+            boolean bigSize = entry.size >= ZIP64_MAGIC;
+            boolean bigCompressed = entry.compressedSize >= ZIP64_MAGIC;
+            boolean bigOffset = entry.offset >= ZIP64_MAGIC;
+            int extra = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+            boolean zip64 = extra > 0 || entry.size >= ZIP64_THRESHOLD;
+
+            out.writeInt(0x02014b50);
+            out.writeShort((3 << 8) | (zip64 ? 45 : 20)); // Made by: Unix
+            out.writeShort(zip64 ? 45 : 20);
+            out.writeShort(FLAG_UTF8 | (descriptor ? FLAG_DATA_DESCRIPTOR : 0));
+            out.writeShort(entry.method);
+            out.writeInt(dosTime(entry.modified));
+            out.writeInt(entry.crc);
+            out.writeInt(bigCompressed ? ZIP64_MAGIC : entry.compressedSize);
+            out.writeInt(bigSize ? ZIP64_MAGIC : entry.size);
+            out.writeShort(name.length);
+            out.writeShort(extra > 0 ? extra + 4 : 0);
+            out.writeShort(0); // Comment
+            out.writeShort(0); // Disk
+            out.writeShort(0); // Internal attributes
+            out.writeInt(0100644L << 16); // Regular file, rw-r--r--
+            out.writeInt(bigOffset ? ZIP64_MAGIC : entry.offset);
+            out.write(name, 0, name.length);
+            if (extra > 0) {
+                out.writeShort(0x0001);
+                out.writeShort(extra);
+                if (bigSize) out.writeLong(entry.size);
+                if (bigCompressed) out.writeLong(entry.compressedSize);
+                if (bigOffset) out.writeLong(entry.offset);
+            }
+        }
+        long end = out.count;
+        long size = end - start;
+
+        if (entries.size() >= ZIP64_MAGIC_COUNT || start >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+            // ZIP64 end of central directory record and locator
+            out.writeInt(0x06064b50);
+            out.writeLong(44);
+            out.writeShort((3 << 8) | 45);
+            out.writeShort(45);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(entries.size());
+            out.writeLong(entries.size());
+            out.writeLong(size);
+            out.writeLong(start);
+
+            out.writeInt(0x07064b50);
+            out.writeInt(0);
+            out.writeLong(end);
+            out.writeInt(1);
+        }
+
+        out.writeInt(0x06054b50);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        out.writeShort(Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        out.writeInt(Math.min(size, ZIP64_MAGIC));
+        out.writeInt(Math.min(start, ZIP64_MAGIC));
+        out.writeShort(0); // Comment
+    }
+
+    private static long dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01 00:00
+        }
+        return ((long) (time.getYear() - 1980) << 25) | (time.getMonthValue() << 21) | (time.getDayOfMonth() << 16)
+                | (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+    }
+
+    private static final class Planned {
+        final String name;
+        final Path path;
+        final long size;
+        final long modified;
+        final int method;
+        GzipFile.Header gzip;
+        boolean checksummed;
+        long offset;
+        long crc;
+        long compressedSize;
+
+        Planned(String name, Path path, long size, long modified, int method) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.method = method;
+        }
+
+        /**
+         * Tasks for the pool: a checksum for a stored entry whose CRC isn't known yet,
+         * nothing for a gzipped one.
+         */
+        long blocks() {
+            if (gzip != null || checksummed) {
+                return 0;
+            }
+            return method == METHOD_STORED ? 1 : Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        }
+
+        boolean usesDataDescriptor() {
+            return method == METHOD_DEFLATED && gzip == null;
+        }
+    }
+
+    private record Block(byte[] data, long crc, long length) {
+    }
+
+    private static final class ByteArrayBuilder {
+        private byte[] bytes;
+        private int length;
+
+        ByteArrayBuilder(int capacity) {
+            bytes = new byte[Math.max(64, capacity)];
+        }
+
+        void append(byte[] data, int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+            System.arraycopy(data, 0, bytes, length, count);
+            length += count;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    /**
+     * Little-endian writes with a running offset, for the header fields.
+     */
+    private static final class CountingOutput extends OutputStream {
+        private final OutputStream out;
+        private final byte[] scratch = new byte[8];
+        long count;
+
+        CountingOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        void writeShort(int value) throws IOException {
+            scratch[0] = (byte) value;
+            scratch[1] = (byte) (value >>> 8);
+            write(scratch, 0, 2);
+        }
+
+        void writeInt(long value) throws IOException {
+            for (int i = 0; i < 4; i++) {
+                scratch[i] = (byte) (value >>> (8 * i));
+            }
+            write(scratch, 0, 4);
+        }
+
+        void writeLong(long value) throws IOException {
+            for (int i = 0; i < 8; i++) {
+                scratch[i] = (byte) (value >>> (8 * i));
+            }
+            write(scratch, 0, 8);
+        }
+    }
+
+    /**
+     * crc32_combine from zlib: the CRC of A followed by B, from the CRCs of A and B and
+     * the length of B, by applying length(B) zero bytes to crc(A) in GF(2).
+     */
+    static final class Crc32 {
+        private static final long POLYNOMIAL = 0xedb88320L;
+
+        static long combine(long crc1, long crc2, long length2) {
+            if (length2 <= 0) {
+                return crc1;
+            }
+            long[] even = new long[32];
+            long[] odd = new long[32];
+
+            // Operator for one zero bit
+            odd[0] = POLYNOMIAL;
+            long row = 1;
+            for (int n = 1; n < 32; n++) {
+                odd[n] = row;
+                row <<= 1;
+            }
+            square(even, odd); // two zero bits
+            square(odd, even); // four zero bits
+
+            do {
+                square(even, odd);
+                if ((length2 & 1) != 0) {
+                    crc1 = times(even, crc1);
+                }
+                length2 >>= 1;
+                if (length2 == 0) {
+                    break;
+                }
+                square(odd, even);
+                if ((length2 & 1) != 0) {
+                    crc1 = times(odd, crc1);
+                }
+                length2 >>= 1;
+            } while (length2 != 0);
+
+            return (crc1 ^ crc2) & 0xffffffffL;
+        }
+
+        private static long times(long[] matrix, long vector) {
+            long sum = 0;
+            for (int i = 0; vector != 0; i++, vector >>>= 1) {
+                if ((vector & 1) != 0) {
+                    sum ^= matrix[i];
+                }
+            }
+            return sum;
+        }
+
+        private static void square(long[] square, long[] matrix) {
+            for (int n = 0; n < 32; n++) {
+                square[n] = times(matrix, matrix[n]);
+            }
+        }
+    }
+}
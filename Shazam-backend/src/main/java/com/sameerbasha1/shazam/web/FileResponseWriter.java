@@ -0,0 +1,429 @@
+package com.sameerbasha1.shazam.web;
+
+import com.sameerbasha1.shazam.service.HotTransferCache;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Writes a stored file to the servlet response with HTTP Range support.
+ *
+ * Whole files and single ranges are handed to the container's sendfile support when
+ * it is available (Tomcat NIO), so the bytes never enter the JVM. Otherwise regions
+ * are pushed with FileChannel.transferTo.
+ *
+ * Files kept gzip-compressed at rest go out as they are, with Content-Encoding: gzip,
+ * to clients that accept it, and are inflated on the fly for the others.
+ *
+ * Files of hot transfers can be passed in from HotTransferCache, in which case they
+ * are written from memory and the file is not touched at all.
+ *
+ * An ETag in the passed headers validates the content: conditional GETs whose
+ * If-None-Match or If-Modified-Since still match get 304 Not Modified, and If-Range
+ * may name it if it is strong. The gzip representation gets a tag of its own, and
+ * loses a Repr-Digest header, which describes the content as uploaded.
+ */
+@Component
+public class FileResponseWriter {
+
+    public static final String REPR_DIGEST = "Repr-Digest";
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Below this size the sendfile hand-off costs more than it saves
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+    private static final String GZIP_TAG_SUFFIX = "-gzip";
+
+    /**
+     * What a response carried: no body (HEAD, 304, 416), part of the representation,
+     * or a part running through its last byte - the whole of it, or the rest of a
+     * download resumed from an offset. Only the last completes a download.
+     */
+    public enum Sent { NOTHING, PART, TO_END }
+
+    /**
+     * Writes the file (or the requested ranges of it) and returns what was sent.
+     */
+    public Sent write(Path file, String contentType, HttpHeaders headers,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return write(file, null, contentType, headers, request, response);
+    }
+
+    /**
+     * Like write(file, ...), but from the cached copy of the file when there is one.
+     */
+    public Sent write(Path file, HotTransferCache.Entry cached, String contentType, HttpHeaders headers,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = cached != null ? cached.length() : Files.size(file);
+        long lastModified = cached != null ? cached.lastModified() : Files.getLastModifiedTime(file).toMillis();
+
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        if (isNotModified(request, headers.getETag(), lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return Sent.NOTHING;
+        }
+
+        boolean head = "HEAD".equals(request.getMethod());
+        List<HttpRange> ranges = requestedRanges(request, length, lastModified, headers.getETag());
+
+        // No (usable) Range header: send the whole file
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (head) {
+                return Sent.NOTHING;
+            }
+            RateLimitFilter.countBytes(request, length);
+            sendRegion(file, cached, 0, length, request, response);
+            return Sent.TO_END;
+        }
+
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return Sent.NOTHING;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            response.setContentType(contentType);
+            response.setContentLengthLong(end - start + 1);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            if (head) {
+                return Sent.NOTHING;
+            }
+            RateLimitFilter.countBytes(request, end - start + 1);
+            sendRegion(file, cached, start, end - start + 1, request, response);
+            return end == length - 1 ? Sent.TO_END : Sent.PART;
+        }
+
+        // Several ranges: multipart/byteranges, each part pushed straight from the channel
+        String boundary = UUID.randomUUID().toString();
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        if (head) {
+            return Sent.NOTHING;
+        }
+
+        Sent sent = Sent.PART;
+        ServletOutputStream out = response.getOutputStream();
+        try (FileChannel channel = cached != null ? null : FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            for (HttpRange range : ranges) {
+                long start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                String partHeader = "\r\n--" + boundary + "\r\n"
+                        + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                        + HttpHeaders.CONTENT_RANGE + ": bytes " + start + "-" + end + "/" + length + "\r\n\r\n";
+                out.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+                RateLimitFilter.countBytes(request, end - start + 1);
+                if (cached != null) {
+                    out.write(cached.slice(start, end - start + 1));
+                } else {
+                    transfer(channel, start, end - start + 1, target);
+                }
+                if (end == length - 1) {
+                    sent = Sent.TO_END;
+                }
+            }
+            out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        return sent;
+    }
+
+    /**
+     * Writes a gzip-compressed file whose content is length bytes. Clients that accept
+     * gzip get the stored bytes, and ranges over them, like any other file; the others
+     * get the content inflated, with a single range served by inflating up to it.
+     */
+    public Sent writeGzip(Path file, long length, String contentType, HttpHeaders headers,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return writeGzip(file, null, length, contentType, headers, request, response);
+    }
+
+    /**
+     * Like writeGzip(file, ...), but from the cached copy of the compressed file when
+     * there is one.
+     */
+    public Sent writeGzip(Path file, HotTransferCache.Entry cached, long length, String contentType,
+                          HttpHeaders headers, HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(request)) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            // Different bytes, so a different strong validator, and no digest of the content
+            HttpHeaders gzipHeaders = HttpHeaders.copyOf(headers);
+            if (headers.getETag() != null) {
+                gzipHeaders.setETag(gzipTag(headers.getETag()));
+            }
+            gzipHeaders.remove(REPR_DIGEST);
+            return write(file, cached, contentType, gzipHeaders, request, response);
+        }
+
+        long lastModified = cached != null ? cached.lastModified() : Files.getLastModifiedTime(file).toMillis();
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        if (isNotModified(request, headers.getETag(), lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return Sent.NOTHING;
+        }
+
+        List<HttpRange> ranges = requestedRanges(request, length, lastModified, headers.getETag());
+        if (ranges != null && ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return Sent.NOTHING;
+        }
+
+        // Several ranges would each inflate from the start; the whole content is sent instead
+        long start = 0;
+        long count = length;
+        if (ranges != null && ranges.size() == 1) {
+            start = ranges.get(0).getRangeStart(length);
+            count = ranges.get(0).getRangeEnd(length) - start + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + count - 1) + "/" + length);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        response.setContentType(contentType);
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod())) {
+            return Sent.NOTHING;
+        }
+
+        RateLimitFilter.countBytes(request, count);
+        InputStream compressed = cached != null ? inputStream(cached.slice(0, cached.length())) : Files.newInputStream(file);
+        try (InputStream in = new GZIPInputStream(compressed, INFLATE_BUFFER_SIZE)) {
+            in.skipNBytes(start);
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[INFLATE_BUFFER_SIZE];
+            long remaining = count;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Compressed file ended early: " + file);
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return start + count == length ? Sent.TO_END : Sent.PART;
+    }
+
+    /**
+     * Whether a GET or HEAD is conditional on validators that still match, so that it
+     * should be answered with 304 Not Modified (RFC 9110, 13.1.2 and 13.1.3). etag may
+     * be null and lastModified -1 when the representation has no such validator.
+     * If-None-Match takes precedence over If-Modified-Since, and is compared weakly.
+     */
+    public boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.equals("*") || opaqueTag(candidate).equals(opaqueTag(etag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (lastModified < 0) {
+            return false;
+        }
+        try {
+            long since = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether Accept-Encoding allows gzip (or any encoding) with a non-zero quality.
+     */
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip") && !name.equals("*")) {
+                continue;
+            }
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            return quality > 0;
+        }
+        return false;
+    }
+
+    /**
+     * Returns null when the full file should be sent, an empty list when the ranges
+     * cannot be satisfied, or the ranges to serve.
+     */
+    private List<HttpRange> requestedRanges(HttpServletRequest request, long length, long lastModified, String etag) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !ifRangeMatches(request, lastModified, etag)) {
+            return null;
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            // A malformed Range header is ignored rather than rejected (RFC 9110, 14.2)
+            return null;
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+
+        long total = 0;
+        for (HttpRange range : ranges) {
+            try {
+                long start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                if (start >= length || end < start) {
+                    return List.of();
+                }
+                total += end - start + 1;
+            } catch (IllegalArgumentException e) {
+                return List.of();
+            }
+        }
+
+        // Overlapping ranges adding up to more than the file: just send the file
+        if (total > length) {
+            return null;
+        }
+        return ranges;
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, long lastModified, String etag) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        // An entity tag must match strongly: weak tags never do
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag != null && !etag.startsWith("W/") && ifRange.trim().equals(etag);
+        }
+        try {
+            long since = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return since / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void sendRegion(Path file, HotTransferCache.Entry cached, long start, long count,
+                            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (cached != null) {
+            // The container copies straight from the buffer into its socket buffer
+            response.getOutputStream().write(cached.slice(start, count));
+            return;
+        }
+        if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // Tomcat writes the region with sendfile once the request returns
+            request.setAttribute(SENDFILE_FILENAME, file.toRealPath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            transfer(channel, start, count, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    /**
+     * The tag of the gzip representation of content tagged etag, e.g. "abc" -> "abc-gzip".
+     */
+    private static String gzipTag(String etag) {
+        return etag.substring(0, etag.length() - 1) + GZIP_TAG_SUFFIX + "\"";
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static InputStream inputStream(ByteBuffer buffer) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.get(b, off, count);
+                return count;
+            }
+        };
+    }
+
+    private void transfer(FileChannel channel, long position, long count,
+                          WritableByteChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                throw new IOException("File truncated while sending at offset " + position);
+            }
+            position += sent;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.sameerbasha1.shazam.web;
+
+import com.sameerbasha1.shazam.service.EventLog;
+import com.sameerbasha1.shazam.service.RateLimiter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Applies RateLimiter to the upload, download and refine endpoints, per client IP.
+ * That is the peer address, or the one a trusted proxy forwarded as resolved by the
+ * container (server.forward-headers-strategy); X-Forwarded-For itself is never read,
+ * as any client could rotate it to get fresh buckets.
+ *
+ * Limited responses carry RateLimit-Limit, RateLimit-Remaining and RateLimit-Reset
+ * (draft-ietf-httpapi-ratelimit-headers) for the request bucket; a refused request
+ * gets 429 with Retry-After before its body is read.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final String BYTES_ATTRIBUTE = RateLimitFilter.class.getName() + ".bytes";
+
+    @Autowired
+    private RateLimiter limiter;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !limiter.isEnabled() || endpoint(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        RateLimiter.Endpoint endpoint = endpoint(request);
+        String client = request.getRemoteAddr();
+        long uploadBytes = endpoint == RateLimiter.Endpoint.UPLOAD ? Math.max(0, request.getContentLengthLong()) : 0;
+
+        RateLimiter.Decision decision = limiter.acquire(client, endpoint, uploadBytes);
+        if (decision.limit() > 0) {
+            response.setHeader("RateLimit-Limit", Long.toString(decision.limit()));
+            response.setHeader("RateLimit-Remaining", Long.toString(decision.remaining()));
+            response.setHeader("RateLimit-Reset", Long.toString(decision.resetSeconds()));
+        }
+
+        if (!decision.allowed()) {
+            EventLog.info("ratelimit", "🚦 {} request from {} rate limited", endpoint, client);
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, decision.retryAfterSeconds())));
+            if (uploadBytes > 0) {
+                // The body is never read; closing keeps the container from draining it
+                response.setHeader(HttpHeaders.CONNECTION, "close");
+            }
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"error\":\"Too many requests, retry later\"}");
+            return;
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.getAttribute(BYTES_ATTRIBUTE) instanceof Long sent) {
+                limiter.charge(client, endpoint, sent);
+            }
+        }
+    }
+
+    /**
+     * Counts response body bytes towards the client's byte limit.
+     */
+    public static void countBytes(HttpServletRequest request, long bytes) {
+        Object counted = request.getAttribute(BYTES_ATTRIBUTE);
+        request.setAttribute(BYTES_ATTRIBUTE, (counted instanceof Long previous ? previous : 0L) + bytes);
+    }
+
+    private static RateLimiter.Endpoint endpoint(HttpServletRequest request) {
+        String method = request.getMethod();
+        if ("OPTIONS".equals(method)) {
+            return null; // CORS preflight
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/api/upload")) {
+            return RateLimiter.Endpoint.UPLOAD;
+        }
+        if (path.startsWith("/api/d/")) {
+            return RateLimiter.Endpoint.DOWNLOAD;
+        }
+        if (path.equals("/api/refine") && "POST".equals(method)) {
+            return RateLimiter.Endpoint.REFINE;
+        }
+        return null;
+    }
+}
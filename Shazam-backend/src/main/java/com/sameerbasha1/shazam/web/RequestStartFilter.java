@@ -0,0 +1,38 @@
+package com.sameerbasha1.shazam.web;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Stamps each request with the time it entered the application, before the multipart
+ * body is read, so upload rates and time to first byte cover the whole request.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestStartFilter extends OncePerRequestFilter {
+
+    private static final String START_ATTRIBUTE = RequestStartFilter.class.getName() + ".start";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * System.nanoTime() when the request came in, or now if it wasn't stamped.
+     */
+    public static long startOf(HttpServletRequest request) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        return start instanceof Long ? (Long) start : System.nanoTime();
+    }
+}
@@ -0,0 +1,81 @@
+package com.sameerbasha1.shazam.web;
+
+import com.sameerbasha1.shazam.service.EventLog;
+import com.sameerbasha1.shazam.service.UploadAdmission;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.MultipartConfigElement;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Admits upload requests through UploadAdmission before their body is read - ahead
+ * of multipart parsing, which spools the whole body to disk - and answers 503 with
+ * Retry-After when the disk is too full or too busy to take them.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    private static final Pattern UPLOAD_PATH = Pattern.compile("/api/upload(/[^/]+/chunk/[^/]+)?");
+
+    @Autowired
+    private UploadAdmission admission;
+
+    @Autowired
+    private MultipartConfigElement multipartConfig;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String method = request.getMethod();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !("POST".equals(method) || "PUT".equals(method)) || !UPLOAD_PATH.matcher(path).matches();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        // Without a Content-Length the upload may be as large as a request is allowed to be
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            length = Math.max(0, multipartConfig.getMaxRequestSize());
+        }
+
+        UploadAdmission.Reservation reservation = reserve(length);
+
+        if (reservation == null) {
+            EventLog.info("upload.admission", "🚦 Upload of {} bytes turned away, storage is full or busy", length);
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(admission.getRetryAfterSeconds()));
+            // The body is never read; closing keeps the container from draining it
+            response.setHeader(HttpHeaders.CONNECTION, "close");
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"error\":\"Server storage is busy, retry later\"}");
+            return;
+        }
+
+        try (reservation) {
+            chain.doFilter(request, response);
+        }
+    }
+
+    private UploadAdmission.Reservation reserve(long length) throws IOException {
+        try {
+            return admission.reserve(length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -1,11 +1,24 @@
 package com.sameerbasha1.shazam;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
 
 @SpringBootTest
 class ShazamApplicationTests {
 
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
     @Test
     void contextLoads() {
     }
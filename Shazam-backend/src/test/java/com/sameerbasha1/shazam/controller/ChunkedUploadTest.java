@@ -0,0 +1,84 @@
+package com.sameerbasha1.shazam.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ChunkedUploadTest {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    void keepsFilesNamedLikeTheUploadsOwnMetadata() throws Exception {
+        byte[] bitmap = new byte[CHUNK_SIZE + 1000];
+        byte[] manifest = new byte[3000];
+        new Random(5).nextBytes(bitmap);
+        new Random(6).nextBytes(manifest);
+
+        String init = mvc.perform(post("/api/upload/init")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"chunkSize\":" + CHUNK_SIZE + ",\"files\":["
+                                + "{\"name\":\"chunks.bitmap\",\"size\":" + bitmap.length + "},"
+                                + "{\"name\":\"upload.properties\",\"size\":" + manifest.length + "}]}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String uploadId = json.readTree(init).get("uploadId").asText();
+
+        // Last chunk first, so a bitmap written over the file would show
+        sendChunk(uploadId, 0, 1, Arrays.copyOfRange(bitmap, CHUNK_SIZE, bitmap.length));
+        sendChunk(uploadId, 0, 0, Arrays.copyOf(bitmap, CHUNK_SIZE));
+        sendChunk(uploadId, 1, 0, manifest);
+
+        String complete = mvc.perform(post("/api/upload/{id}/complete", uploadId))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String transferId = json.readTree(complete).get("transferId").asText();
+
+        assertArrayEquals(bitmap, mvc.perform(get("/api/d/{id}/{name}", transferId, "chunks.bitmap"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray());
+        assertArrayEquals(manifest, mvc.perform(get("/api/d/{id}/{name}", transferId, "upload.properties"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray());
+    }
+
+    private void sendChunk(String uploadId, int file, int chunk, byte[] content) throws Exception {
+        mvc.perform(put("/api/upload/{id}/chunk/{chunk}", uploadId, chunk)
+                        .param("file", Integer.toString(file))
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(content))
+                .andExpect(status().isOk());
+    }
+}
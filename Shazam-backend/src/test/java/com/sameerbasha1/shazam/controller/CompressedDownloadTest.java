@@ -0,0 +1,128 @@
+package com.sameerbasha1.shazam.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class CompressedDownloadTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    void passesCompressedFilesThroughToClientsThatAcceptGzip() throws Exception {
+        byte[] text = text();
+        String url = upload("server.log", text);
+
+        MockHttpServletResponse gzipped = mvc.perform(get(url).header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertEquals("gzip", gzipped.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, gzipped.getHeader(HttpHeaders.VARY));
+        byte[] stored = gzipped.getContentAsByteArray();
+        assertTrue(stored.length < text.length / 2, "sent " + stored.length + " bytes");
+        assertArrayEquals(text, gunzip(stored));
+        // Different bytes, different strong validator
+        assertTrue(gzipped.getHeader(HttpHeaders.ETAG).endsWith("-gzip\""), gzipped.getHeader(HttpHeaders.ETAG));
+
+        // Ranges over the stored bytes
+        MockHttpServletResponse range = mvc.perform(get(url)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.RANGE, "bytes=0-9"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        assertEquals("bytes 0-9/" + stored.length, range.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOf(stored, 10), range.getContentAsByteArray());
+    }
+
+    @Test
+    void inflatesCompressedFilesForOtherClients() throws Exception {
+        byte[] text = text();
+        String url = upload("server.log", text);
+
+        for (String acceptEncoding : new String[] {null, "identity", "gzip;q=0"}) {
+            MockHttpServletResponse plain = mvc.perform(acceptEncoding != null
+                            ? get(url).header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding)
+                            : get(url))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse();
+            assertNull(plain.getHeader(HttpHeaders.CONTENT_ENCODING), acceptEncoding);
+            assertEquals(text.length, plain.getContentLengthLong());
+            assertArrayEquals(text, plain.getContentAsByteArray());
+        }
+
+        // A range of the content, inflated up to it
+        MockHttpServletResponse range = mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=500000-500099"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        assertEquals("bytes 500000-500099/" + text.length, range.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(text, 500_000, 500_100), range.getContentAsByteArray());
+    }
+
+    @Test
+    void keepsIncompressibleFilesAsUploaded() throws Exception {
+        byte[] noise = new byte[100_000];
+        new Random(13).nextBytes(noise);
+        String url = upload("noise.log", noise);
+
+        MockHttpServletResponse response = mvc.perform(get(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(noise, response.getContentAsByteArray());
+    }
+
+    private String upload(String name, byte[] content) throws Exception {
+        String response = mvc.perform(multipart("/api/upload").file(new MockMultipartFile("files", name, null, content)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return "/api/d/" + json.readTree(response).get("transferId").asText();
+    }
+
+    private static byte[] text() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 1_000_000; i++) {
+            text.append("GET /api/d/").append(i % 997).append(" 200 ").append(i).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws Exception {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
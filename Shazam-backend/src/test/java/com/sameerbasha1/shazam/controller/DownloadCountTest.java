@@ -0,0 +1,94 @@
+package com.sameerbasha1.shazam.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMultipartHttpServletRequestBuilder;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class DownloadCountTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    void countsArchiveDownloadsOnceTheyStream() throws Exception {
+        String id = upload(
+                new MockMultipartFile("files", "a.txt", null, "first".getBytes(StandardCharsets.UTF_8)),
+                new MockMultipartFile("files", "b.txt", null, "second".getBytes(StandardCharsets.UTF_8)));
+
+        mvc.perform(head("/api/d/" + id)).andExpect(status().isOk());
+        assertEquals(0, downloadCount(id));
+
+        MvcResult started = mvc.perform(get("/api/d/" + id)).andReturn();
+        mvc.perform(asyncDispatch(started)).andExpect(status().isOk());
+        assertEquals(1, downloadCount(id));
+    }
+
+    @Test
+    void countsFileDownloadsThatReachTheEnd() throws Exception {
+        String id = upload(new MockMultipartFile("files", "data.bin", null, new byte[1000]));
+        String url = "/api/d/" + id;
+
+        // Probes and partial ranges are not downloads
+        mvc.perform(head(url)).andExpect(status().isOk());
+        mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=0-0")).andExpect(status().isPartialContent());
+        mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=0-499")).andExpect(status().isPartialContent());
+        assertEquals(0, downloadCount(id));
+
+        // The rest of a resumed download completes it
+        mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=500-")).andExpect(status().isPartialContent());
+        assertEquals(1, downloadCount(id));
+
+        mvc.perform(get(url)).andExpect(status().isOk());
+        assertEquals(2, downloadCount(id));
+    }
+
+    private String upload(MockMultipartFile... files) throws Exception {
+        MockMultipartHttpServletRequestBuilder request = multipart("/api/upload");
+        for (MockMultipartFile file : files) {
+            request.file(file);
+        }
+        String response = mvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return json.readTree(response).get("transferId").asText();
+    }
+
+    private int downloadCount(String id) throws Exception {
+        String response = mvc.perform(get("/api/transfer/" + id + "/info"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return json.readTree(response).get("downloadCount").asInt();
+    }
+}
@@ -0,0 +1,161 @@
+package com.sameerbasha1.shazam.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class FileChecksumTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    void reportsChecksumsAndDigestOfUploadedContent() throws Exception {
+        byte[] noise = new byte[200_000];
+        new Random(3).nextBytes(noise);
+        JsonNode uploaded = upload("noise.bin", noise);
+        JsonNode file = uploaded.get("files").get(0);
+        assertEquals(sha256(noise), file.get("sha256").asText());
+        assertEquals(crc32(noise), file.get("crc32").asText());
+
+        MockHttpServletResponse download = mvc.perform(get("/api/d/" + uploaded.get("transferId").asText() + "/noise.bin"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertEquals("sha-256=:" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(noise)) + ":",
+                download.getHeader("Repr-Digest"));
+        assertArrayEquals(noise, download.getContentAsByteArray());
+    }
+
+    @Test
+    void leavesDigestOffTheGzipRepresentation() throws Exception {
+        byte[] text = "checksum line\n".repeat(20_000).getBytes(StandardCharsets.US_ASCII);
+        JsonNode uploaded = upload("lines.txt", text);
+        assertEquals(crc32(text), uploaded.get("files").get(0).get("crc32").asText());
+        String url = "/api/d/" + uploaded.get("transferId").asText() + "/lines.txt";
+
+        MockHttpServletResponse gzipped = mvc.perform(get(url)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertEquals("gzip", gzipped.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertNull(gzipped.getHeader("Repr-Digest"));
+
+        MockHttpServletResponse plain = mvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertNotNull(plain.getHeader("Repr-Digest"));
+        assertArrayEquals(text, plain.getContentAsByteArray());
+    }
+
+    @Test
+    void describesLinkedContentWithTheChecksumRecordedOnItsBlob() throws Exception {
+        byte[] noise = new byte[150_000];
+        new Random(5).nextBytes(noise);
+        upload("original.bin", noise);
+        String sha256 = sha256(noise);
+
+        Path blob;
+        try (Stream<Path> files = Files.walk(uploadDir)) {
+            blob = files.filter(path -> path.getFileName().toString().equals(sha256)).findFirst().orElseThrow();
+        }
+        UserDefinedFileAttributeView attributes = Files.getFileAttributeView(blob, UserDefinedFileAttributeView.class);
+        assumeTrue(attributes != null && attributes.list().contains("shazam.crc32"),
+                "no user attributes on this filesystem");
+        assertEquals(crc32(noise), readAttribute(attributes));
+        // A recorded value that can't be computed from the content shows it isn't re-read
+        attributes.write("shazam.crc32", StandardCharsets.US_ASCII.encode("0badc0de"));
+
+        JsonNode present = preflight(sha256).get("present").get(0);
+        String challenge = present.get("challenge").asText();
+        int offset = present.get("offset").asInt();
+        int length = present.get("length").asInt();
+        String response = mvc.perform(multipart("/api/upload")
+                        .param("existing", sha256 + ":copy.bin")
+                        .param("proof", challenge + ":" + answer(challenge, Arrays.copyOfRange(noise, offset, offset + length))))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertEquals("0badc0de", json.readTree(response).get("files").get(0).get("crc32").asText());
+    }
+
+    private JsonNode upload(String name, byte[] content) throws Exception {
+        String response = mvc.perform(multipart("/api/upload").file(new MockMultipartFile("files", name, null, content)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return json.readTree(response);
+    }
+
+    private JsonNode preflight(String sha256) throws Exception {
+        String response = mvc.perform(post("/api/upload/preflight")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"hashes\":[\"" + sha256 + "\"]}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return json.readTree(response);
+    }
+
+    private static String readAttribute(UserDefinedFileAttributeView attributes) throws Exception {
+        ByteBuffer value = ByteBuffer.allocate(attributes.size("shazam.crc32"));
+        attributes.read("shazam.crc32", value);
+        return new String(value.array(), 0, value.position(), StandardCharsets.US_ASCII);
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    private static String crc32(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return HexFormat.of().toHexDigits((int) crc.getValue());
+    }
+
+    private static String answer(String challenge, byte[] range) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(challenge.getBytes(StandardCharsets.UTF_8));
+        digest.update(range);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,99 @@
+package com.sameerbasha1.shazam.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class FileDownloadTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    private final byte[] image = new byte[80_000];
+    private final byte[] notes = "buy milk\n".getBytes(StandardCharsets.UTF_8);
+    private String transferId;
+
+    @BeforeEach
+    void upload() throws Exception {
+        new Random(17).nextBytes(image);
+        String response = mvc.perform(multipart("/api/upload")
+                        .file(new MockMultipartFile("files", "image.raw", null, image))
+                        .file(new MockMultipartFile("files", "my notes.txt", null, notes)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        transferId = json.readTree(response).get("transferId").asText();
+    }
+
+    @Test
+    void downloadsOneFileOfATransferByName() throws Exception {
+        MockHttpServletResponse response = mvc.perform(get("/api/d/{id}/{name}", transferId, "image.raw"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertEquals("application/octet-stream", response.getContentType());
+        assertEquals("attachment; filename=\"image.raw\"", response.getHeader(HttpHeaders.CONTENT_DISPOSITION));
+        assertEquals(image.length, response.getContentLengthLong());
+        assertArrayEquals(image, response.getContentAsByteArray());
+
+        // By the name the file was stored under
+        assertArrayEquals(notes, mvc.perform(get("/api/d/{id}/{name}", transferId, "my_notes.txt"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray());
+
+        mvc.perform(get("/api/d/{id}/{name}", transferId, "other.txt"))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/d/{id}/{name}", "unknown", "image.raw"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void downloadsOneFileOfATransferByPosition() throws Exception {
+        MockHttpServletResponse response = mvc.perform(get("/api/d/{id}/files/{index}", transferId, 1))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertEquals("attachment; filename=\"my_notes.txt\"", response.getHeader(HttpHeaders.CONTENT_DISPOSITION));
+        assertArrayEquals(notes, response.getContentAsByteArray());
+
+        // With Range, like a single-file transfer
+        MockHttpServletResponse range = mvc.perform(get("/api/d/{id}/files/{index}", transferId, 0)
+                        .header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        assertEquals("bytes 10-19/" + image.length, range.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        mvc.perform(get("/api/d/{id}/files/{index}", transferId, 2))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/d/{id}/files/{index}", transferId, -1))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,140 @@
+package com.sameerbasha1.shazam.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class RangeDownloadTest {
+
+    private static final int SIZE = 100_000;
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    private final byte[] content = new byte[SIZE];
+    private String url;
+
+    @BeforeEach
+    void upload() throws Exception {
+        new Random(7).nextBytes(content);
+        String response = mvc.perform(multipart("/api/upload")
+                        .file(new MockMultipartFile("files", "data.bin", null, content)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        url = "/api/d/" + json.readTree(response).get("transferId").asText();
+    }
+
+    @Test
+    void servesSingleRanges() throws Exception {
+        MockHttpServletResponse middle = mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=1000-1999"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        assertEquals("bytes 1000-1999/" + SIZE, middle.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(1000, middle.getContentLengthLong());
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), middle.getContentAsByteArray());
+
+        // Resuming: from an offset to the end, and the last bytes
+        MockHttpServletResponse rest = mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=90000-"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        assertArrayEquals(Arrays.copyOfRange(content, 90_000, SIZE), rest.getContentAsByteArray());
+        MockHttpServletResponse suffix = mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=-10"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        assertEquals("bytes " + (SIZE - 10) + "-" + (SIZE - 1) + "/" + SIZE, suffix.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(content, SIZE - 10, SIZE), suffix.getContentAsByteArray());
+    }
+
+    @Test
+    void rejectsUnsatisfiableRangesAndIgnoresMalformedOnes() throws Exception {
+        MockHttpServletResponse past = mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=" + SIZE + "-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andReturn().getResponse();
+        assertEquals("bytes */" + SIZE, past.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        MockHttpServletResponse malformed = mvc.perform(get(url).header(HttpHeaders.RANGE, "lines=1-2"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertArrayEquals(content, malformed.getContentAsByteArray());
+    }
+
+    @Test
+    void servesSeveralRangesAsMultipartByteranges() throws Exception {
+        MockHttpServletResponse response = mvc.perform(get(url).header(HttpHeaders.RANGE, "bytes=0-9,5000-5099"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        String contentType = response.getContentType();
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="), contentType);
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(part(boundary, 0, 9));
+        expected.write(content, 0, 10);
+        expected.write(part(boundary, 5000, 5099));
+        expected.write(content, 5000, 100);
+        expected.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        assertArrayEquals(expected.toByteArray(), response.getContentAsByteArray());
+    }
+
+    @Test
+    void honoursIfRangeOnlyWhileTheValidatorMatches() throws Exception {
+        String etag = mvc.perform(get(url)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+
+        MockHttpServletResponse current = mvc.perform(get(url)
+                        .header(HttpHeaders.RANGE, "bytes=100-199")
+                        .header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse();
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 200), current.getContentAsByteArray());
+
+        // A client holding a different version gets the whole file instead of a range of it
+        MockHttpServletResponse changed = mvc.perform(get(url)
+                        .header(HttpHeaders.RANGE, "bytes=100-199")
+                        .header(HttpHeaders.IF_RANGE, "\"" + "0".repeat(64) + "\""))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertNull(changed.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(content, changed.getContentAsByteArray());
+    }
+
+    private static byte[] part(String boundary, long start, long end) {
+        return ("\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes " + start + "-" + end + "/" + SIZE + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+}
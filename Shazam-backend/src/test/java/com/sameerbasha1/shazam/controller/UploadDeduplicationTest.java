@@ -0,0 +1,124 @@
+package com.sameerbasha1.shazam.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class UploadDeduplicationTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    void linksStoredContentOnlyWithProofOfPossession() throws Exception {
+        byte[] noise = new byte[300_000];
+        new Random(9).nextBytes(noise);
+        assertLinkedOnlyWithProof("noise.bin", noise);
+    }
+
+    @Test
+    void provesContentKeptCompressed() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            text.append("event ").append(i).append(" recorded\n");
+        }
+        assertLinkedOnlyWithProof("events.log", text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void reportsUnknownContentAsMissing() throws Exception {
+        String unknown = "ab".repeat(32);
+        JsonNode preflight = preflight(unknown);
+        assertEquals(0, preflight.get("present").size());
+        assertEquals(unknown, preflight.get("missing").get(0).asText());
+    }
+
+    private void assertLinkedOnlyWithProof(String name, byte[] content) throws Exception {
+        mvc.perform(multipart("/api/upload").file(new MockMultipartFile("files", name, null, content)))
+                .andExpect(status().isOk());
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        JsonNode present = preflight(sha256).get("present").get(0);
+        assertEquals(sha256, present.get("sha256").asText());
+        String challenge = present.get("challenge").asText();
+        int offset = present.get("offset").asInt();
+        int length = present.get("length").asInt();
+        String reference = sha256 + ":copy-" + name;
+
+        // Knowing the hash is not enough
+        mvc.perform(multipart("/api/upload").param("existing", reference))
+                .andExpect(status().isBadRequest());
+        mvc.perform(multipart("/api/upload").param("existing", reference)
+                        .param("proof", challenge + ":" + answer(challenge, new byte[length])))
+                .andExpect(status().isBadRequest());
+        // Nor is a challenge with the range moved to one the client happens to know
+        String[] fields = challenge.split("\\.");
+        int moved = offset == 0 ? 1 : 0;
+        fields[1] = Integer.toString(moved);
+        String forged = String.join(".", fields);
+        mvc.perform(multipart("/api/upload").param("existing", reference)
+                        .param("proof", forged + ":" + answer(forged, Arrays.copyOfRange(content, moved, moved + length))))
+                .andExpect(status().isBadRequest());
+
+        String proof = challenge + ":" + answer(challenge, Arrays.copyOfRange(content, offset, offset + length));
+        String response = mvc.perform(multipart("/api/upload").param("existing", reference).param("proof", proof))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String transferId = json.readTree(response).get("transferId").asText();
+
+        byte[] copy = mvc.perform(get("/api/d/" + transferId + "/copy-" + name))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        assertArrayEquals(content, copy);
+    }
+
+    private JsonNode preflight(String sha256) throws Exception {
+        String response = mvc.perform(post("/api/upload/preflight")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"hashes\":[\"" + sha256 + "\"]}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return json.readTree(response);
+    }
+
+    private static String answer(String challenge, byte[] range) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(challenge.getBytes(StandardCharsets.UTF_8));
+        digest.update(range);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
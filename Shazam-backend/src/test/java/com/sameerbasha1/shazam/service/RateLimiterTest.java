@@ -0,0 +1,64 @@
+package com.sameerbasha1.shazam.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    private final RateLimiter limiter = new RateLimiter();
+
+    @AfterEach
+    void shutdown() {
+        limiter.shutdown();
+    }
+
+    @Test
+    void refusesRequestsOverTheBurstPerClient() {
+        configure(0);
+
+        for (int i = 0; i < 3; i++) {
+            RateLimiter.Decision decision = limiter.acquire("10.0.0.1", RateLimiter.Endpoint.DOWNLOAD, 0);
+            assertTrue(decision.allowed());
+            assertEquals(3, decision.limit());
+            assertEquals(2 - i, decision.remaining());
+        }
+        RateLimiter.Decision refused = limiter.acquire("10.0.0.1", RateLimiter.Endpoint.DOWNLOAD, 0);
+        assertFalse(refused.allowed());
+        assertTrue(refused.retryAfterSeconds() >= 1);
+
+        // Buckets are per client and per endpoint
+        assertTrue(limiter.acquire("10.0.0.2", RateLimiter.Endpoint.DOWNLOAD, 0).allowed());
+        assertTrue(limiter.acquire("10.0.0.1", RateLimiter.Endpoint.UPLOAD, 0).allowed());
+    }
+
+    @Test
+    void refusesWhileBytesAreOwed() {
+        configure(1024);
+
+        assertTrue(limiter.acquire("10.0.0.1", RateLimiter.Endpoint.DOWNLOAD, 0).allowed());
+        // 50 KB sent against 1 KB/s with a 10 KB burst: about 40 s owed past the burst
+        limiter.charge("10.0.0.1", RateLimiter.Endpoint.DOWNLOAD, 50 * 1024);
+        RateLimiter.Decision refused = limiter.acquire("10.0.0.1", RateLimiter.Endpoint.DOWNLOAD, 0);
+        assertFalse(refused.allowed());
+        assertTrue(refused.retryAfterSeconds() >= 39 && refused.retryAfterSeconds() <= 41, "" + refused.retryAfterSeconds());
+    }
+
+    private void configure(long downloadBytesPerSecond) {
+        ReflectionTestUtils.setField(limiter, "enabled", false);
+        ReflectionTestUtils.setField(limiter, "uploadRequests", 1.0);
+        ReflectionTestUtils.setField(limiter, "uploadBurst", 3L);
+        ReflectionTestUtils.setField(limiter, "uploadBytes", DataSize.ofBytes(0));
+        ReflectionTestUtils.setField(limiter, "uploadByteBurst", DataSize.ofKilobytes(10));
+        ReflectionTestUtils.setField(limiter, "downloadRequests", 0.001);
+        ReflectionTestUtils.setField(limiter, "downloadBurst", 3L);
+        ReflectionTestUtils.setField(limiter, "downloadBytes", DataSize.ofBytes(downloadBytesPerSecond));
+        ReflectionTestUtils.setField(limiter, "downloadByteBurst", DataSize.ofKilobytes(10));
+        ReflectionTestUtils.setField(limiter, "refineRequests", 1.0);
+        ReflectionTestUtils.setField(limiter, "refineBurst", 3L);
+        limiter.init();
+    }
+}
@@ -0,0 +1,326 @@
+package com.sameerbasha1.shazam.service;
+
+import com.sameerbasha1.shazam.model.StoredFile;
+import com.sameerbasha1.shazam.model.TransferSession;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionJournalTest {
+
+    private static final String SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysPutsDownloadsAndRemovals() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            assertTrue(journal.replay().isEmpty());
+            journal.appendPut(session("aaaa", 2));
+            journal.appendPut(session("bbbb", 1));
+            journal.appendDownloads("aaaa", 3);
+            journal.appendRemove("bbbb");
+        }
+
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            Map<String, TransferSession> sessions = journal.replay();
+            assertEquals(1, sessions.size());
+            TransferSession restored = sessions.get("aaaa");
+            assertEquals(3, restored.getDownloadCount());
+            assertEquals(List.of("file0.bin", "file1.bin"), restored.getFileNames());
+            assertEquals(1234L, restored.getTotalSize());
+            assertEquals(SHA256, restored.getFiles().get(0).getSha256());
+            assertEquals("0a1b2c3d", restored.getFiles().get(0).getCrc32());
+            assertNull(restored.getFiles().get(1).getSha256());
+            assertNull(restored.getFiles().get(1).getCrc32());
+            assertEquals("10.0.0.1", restored.getUploaderIp());
+        }
+    }
+
+    @Test
+    void stopsAtTornRecordAndKeepsAppending() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+
+        long tornOffset;
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            journal.replay();
+            journal.appendPut(session("aaaa", 1));
+            tornOffset = journal.getSize();
+            journal.appendPut(session("bbbb", 1));
+        }
+
+        // Corrupt the payload of the second record, as a crash mid-write would
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(tornOffset + 12);
+            raf.write(0x7f);
+        }
+
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            Map<String, TransferSession> sessions = journal.replay();
+            assertEquals(List.of("aaaa"), new ArrayList<>(sessions.keySet()));
+            journal.appendPut(session("cccc", 1));
+        }
+
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            assertEquals(2, journal.replay().size());
+        }
+    }
+
+    @Test
+    void compactionKeepsOnlyLiveSessions() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            journal.replay();
+            List<TransferSession> live = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                TransferSession session = session("s" + i, 1);
+                journal.appendPut(session);
+                if (i % 10 == 0) {
+                    live.add(session);
+                } else {
+                    journal.appendRemove(session.getId());
+                }
+            }
+
+            journal.compact(live);
+            assertEquals(100, journal.getRecordCount());
+            journal.appendRemove("s0");
+        }
+
+        assertFalse(Files.exists(dir.resolve("sessions.journal.compact")));
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            Map<String, TransferSession> sessions = journal.replay();
+            assertEquals(99, sessions.size());
+            assertTrue(sessions.containsKey("s10"));
+        }
+    }
+
+    @Test
+    void recordsConcurrentDownloadsWithoutLosingAny() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+
+        try (InMemorySessionStore store = new InMemorySessionStore(file)) {
+            store.open(new RecordingListener());
+            TransferSession session = session("aaaa", 1);
+            store.put(session);
+
+            // Enough records to grow the file while the threads are appending
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                threads.add(Thread.startVirtualThread(() -> {
+                    try {
+                        for (int i = 0; i < 30_000; i++) {
+                            store.recordDownload(session);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(240_000, session.getDownloadCount());
+            assertTrue(session.getRecentDownloads() > 0);
+
+            // Retired, it keeps its count; the download is recorded as adding nothing
+            session.retire();
+            assertEquals(-1, store.recordDownload(session));
+        }
+
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            assertEquals(240_000, journal.replay().get("aaaa").getDownloadCount());
+        }
+    }
+
+    @Test
+    void sharedJournalsFollowEachOther() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+        RecordingListener listener = new RecordingListener();
+        List<String> changes = listener.changes;
+
+        // Two journals on one file stand in for two processes
+        try (SessionJournal first = SessionJournal.openShared(file);
+             SessionJournal second = SessionJournal.openShared(file)) {
+            Map<String, TransferSession> firstSessions = new HashMap<>(first.replay());
+            Map<String, TransferSession> secondSessions = new HashMap<>(second.replay());
+
+            for (String id : List.of("aaaa", "bbbb")) {
+                TransferSession session = session(id, 1);
+                firstSessions.put(id, session);
+                first.appendPut(session);
+            }
+            assertThrows(IllegalStateException.class, () -> second.appendPut(session("cccc", 1)));
+
+            second.catchUp(secondSessions, listener);
+            assertEquals(List.of("+aaaa", "+bbbb"), changes);
+            second.appendDownloads("aaaa", 2);
+            second.appendRemove("bbbb");
+            secondSessions.remove("bbbb");
+
+            first.catchUp(firstSessions, listener);
+            assertEquals(List.of("+aaaa", "+bbbb", "aaaa+2", "-bbbb"), changes);
+            assertEquals(2, firstSessions.get("aaaa").getDownloadCount());
+
+            // Compaction replaces the file under the other journal
+            second.compact(secondSessions.values());
+            second.appendPut(session("dddd", 1));
+            changes.clear();
+            first.catchUp(firstSessions, listener);
+            assertEquals(List.of("+dddd"), changes);
+            assertEquals(Set.of("aaaa", "dddd"), firstSessions.keySet());
+        }
+    }
+
+    @Test
+    void sharedJournalFollowsCompactionWhileBehind() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+        RecordingListener listener = new RecordingListener();
+
+        try (SessionJournal first = SessionJournal.openShared(file);
+             SessionJournal second = SessionJournal.openShared(file)) {
+            Map<String, TransferSession> firstSessions = new HashMap<>(first.replay());
+            Map<String, TransferSession> secondSessions = new HashMap<>(second.replay());
+
+            // The second journal has not seen these when the first one compacts
+            for (String id : List.of("aaaa", "bbbb")) {
+                TransferSession session = session(id, 1);
+                firstSessions.put(id, session);
+                first.appendPut(session);
+            }
+            first.compact(firstSessions.values());
+            first.appendPut(session("cccc", 1));
+
+            second.catchUp(secondSessions, listener);
+            assertEquals(Set.of("aaaa", "bbbb", "cccc"), secondSessions.keySet());
+            second.appendRemove("aaaa");
+
+            listener.changes.clear();
+            first.catchUp(firstSessions, listener);
+            assertEquals(List.of("-aaaa"), listener.changes);
+        }
+    }
+
+    @Test
+    void sharedStoresCountEveryDownload() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+
+        try (SharedSessionStore first = new SharedSessionStore(file);
+             SharedSessionStore second = new SharedSessionStore(file)) {
+            first.open(new RecordingListener());
+            second.open(new RecordingListener());
+            first.put(session("aaaa", 1));
+            TransferSession seenBySecond = second.get("aaaa");
+
+            // Both count from the same total; neither download may be lost
+            assertEquals(1, first.recordDownload(first.get("aaaa")));
+            assertEquals(2, second.recordDownload(seenBySecond));
+            first.maintain();
+            assertEquals(2, first.get("aaaa").getDownloadCount());
+
+            // A retired session stays retired when downloads counted elsewhere arrive
+            assertTrue(first.get("aaaa").retire() >= 0);
+            second.recordDownload(seenBySecond);
+            first.maintain();
+            assertTrue(first.get("aaaa").isRetired());
+        }
+
+        try (SessionJournal journal = SessionJournal.open(file)) {
+            assertEquals(3, journal.replay().get("aaaa").getDownloadCount());
+        }
+    }
+
+    @Test
+    void sharedStoresRefuseAnIdTakenByAnotherProcess() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+
+        try (SharedSessionStore first = new SharedSessionStore(file);
+             SharedSessionStore second = new SharedSessionStore(file)) {
+            first.open(new RecordingListener());
+            second.open(new RecordingListener());
+
+            first.put(session("aaaa", 1));
+            assertThrows(IllegalStateException.class, () -> second.put(session("aaaa", 1)));
+            assertEquals(dir.resolve("aaaa"), second.get("aaaa").getPath());
+
+            // Replacing a session this process already knows is fine
+            second.put(second.get("aaaa").withPath(dir.resolve("moved")));
+            assertFalse(second.contains("bbbb"));
+            first.maintain();
+            assertEquals(dir.resolve("moved"), first.get("aaaa").getPath());
+        }
+    }
+
+    @Test
+    void sharedStoresTellTheListenerOutsideTheJournalLock() throws Exception {
+        Path file = dir.resolve("sessions.journal");
+
+        try (SharedSessionStore first = new SharedSessionStore(file);
+             SharedSessionStore second = new SharedSessionStore(file)) {
+            List<Boolean> locked = new ArrayList<>();
+            first.open(new RecordingListener());
+            second.open(new RecordingListener() {
+                @Override
+                public void added(TransferSession session) {
+                    locked.add(Thread.holdsLock(second.journal));
+                }
+            });
+
+            first.put(session("aaaa", 1));
+            first.put(session("bbbb", 1));
+            second.put(session("cccc", 1));
+            first.put(session("dddd", 1));
+            second.get("dddd");
+            assertEquals(List.of(false, false, false), locked);
+        }
+    }
+
+    /**
+     * Records what catchUp reported, as "+id", "-id" and "id+downloads".
+     */
+    private static class RecordingListener implements SessionStore.Listener {
+        final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void added(TransferSession session) {
+            changes.add("+" + session.getId());
+        }
+
+        @Override
+        public void removed(TransferSession session) {
+            changes.add("-" + session.getId());
+        }
+
+        @Override
+        public void downloaded(TransferSession session, int downloads) {
+            changes.add(session.getId() + "+" + downloads);
+        }
+    }
+
+    private TransferSession session(String id, int files) {
+        List<StoredFile> storedFiles = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            storedFiles.add(i == 0
+                    ? new StoredFile("file0.bin", 1234L, SHA256, null, "0a1b2c3d")
+                    : new StoredFile("file" + i + ".bin", 0, null));
+        }
+        TransferSession session = new TransferSession(id, dir.resolve(id), storedFiles,
+                System.currentTimeMillis() + 60_000);
+        session.setUploaderIp("10.0.0.1");
+        return session;
+    }
+}
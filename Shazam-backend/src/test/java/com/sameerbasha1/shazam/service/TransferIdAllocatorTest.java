@@ -0,0 +1,60 @@
+package com.sameerbasha1.shazam.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferIdAllocatorTest {
+
+    @Test
+    void allocatesBase62IdsOfTheConfiguredLength() {
+        TransferIdAllocator allocator = new TransferIdAllocator(8, 4);
+        Set<Character> seen = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            String id = allocator.allocate(candidate -> false);
+            assertTrue(id.matches("[0-9A-Za-z]{8}"), id);
+            for (char c : id.toCharArray()) {
+                seen.add(c);
+            }
+        }
+        // Every character of the alphabet turns up, so none is being redrawn away
+        assertEquals(62, seen.size());
+
+        assertThrows(IllegalArgumentException.class, () -> new TransferIdAllocator(5, 1));
+    }
+
+    @Test
+    void skipsTakenIdsAndThoseRegisteredWhileReserving() {
+        TransferIdAllocator allocator = new TransferIdAllocator(6, 1);
+
+        List<String> tested = new ArrayList<>();
+        String id = allocator.allocate(candidate -> {
+            tested.add(candidate);
+            return tested.size() <= 2;
+        });
+        // An ID that is free is checked again once reserved
+        assertEquals(List.of(id, id), tested.subList(2, tested.size()));
+        assertFalse(tested.subList(0, 2).contains(id));
+        assertEquals(2L, allocator.getMetrics().get("collisions"));
+
+        // The first check passes, then the transfer shows up before the reservation holds
+        List<String> raced = new ArrayList<>();
+        String next = allocator.allocate(candidate -> {
+            raced.add(candidate);
+            return raced.size() == 2;
+        });
+        assertNotEquals(raced.get(0), next);
+        assertEquals(3L, allocator.getMetrics().get("collisions"));
+        // Only the two IDs handed out are still reserved
+        assertEquals(2, allocator.getMetrics().get("reserved"));
+
+        allocator.release(id);
+        allocator.release(next);
+        assertEquals(0, allocator.getMetrics().get("reserved"));
+    }
+}
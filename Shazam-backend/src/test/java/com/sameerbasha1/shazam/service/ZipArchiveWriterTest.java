@@ -0,0 +1,170 @@
+package com.sameerbasha1.shazam.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipArchiveWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void writesArchiveThatStandardReadersAccept() throws Exception {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1_500_000) {
+            text.append("line ").append(random.nextInt(1000)).append(" of a fairly repetitive log file\n");
+        }
+        byte[] noise = new byte[700_000];
+        random.nextBytes(noise);
+
+        Map<String, byte[]> files = new HashMap<>();
+        files.put("notes.txt", text.toString().getBytes());
+        files.put("noise.bin", noise);
+        files.put("photo.jpg", "not really a jpeg, but named like one".getBytes());
+        files.put("empty.txt", new byte[0]);
+
+        List<ZipArchiveWriter.Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            Path path = dir.resolve(file.getKey());
+            Files.write(path, file.getValue());
+            entries.add(new ZipArchiveWriter.Entry(file.getKey(), path));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ZipArchiveWriter(pool, 4).write(entries, out);
+        byte[] archive = out.toByteArray();
+        assertTrue(archive.length < noise.length + files.get("notes.txt").length / 2);
+
+        Path zip = dir.resolve("out.zip");
+        Files.write(zip, archive);
+        try (ZipFile reader = new ZipFile(zip.toFile())) {
+            assertEquals(files.size(), reader.size());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                ZipEntry entry = reader.getEntry(file.getKey());
+                assertArrayEquals(file.getValue(), reader.getInputStream(entry).readAllBytes());
+            }
+            assertEquals(ZipEntry.DEFLATED, reader.getEntry("notes.txt").getMethod());
+            assertEquals(ZipEntry.STORED, reader.getEntry("noise.bin").getMethod());
+            assertEquals(ZipEntry.STORED, reader.getEntry("photo.jpg").getMethod());
+        }
+
+        // Streaming readers rely on the local headers and data descriptors instead
+        int read = 0;
+        try (ZipInputStream stream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = stream.getNextEntry()) != null) {
+                assertArrayEquals(files.get(entry.getName()), stream.readAllBytes());
+                read++;
+            }
+        }
+        assertEquals(files.size(), read);
+    }
+
+    @Test
+    void copiesGzippedFilesWithoutRecompressing() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            text.append("2026-10-18 INFO request ").append(i).append(" served\n");
+        }
+        byte[] content = text.toString().getBytes();
+        Path gzipped = dir.resolve("server.log");
+        ContentHash hash = new ContentHash();
+        long stored = GzipFile.write(new ByteArrayInputStream(content), content.length, gzipped, hash);
+
+        GzipFile.Header header = GzipFile.read(gzipped);
+        assertEquals(content.length, header.originalSize());
+        assertEquals(stored, Files.size(gzipped));
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)), hash.sha256());
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        assertEquals(crc.getValue(), header.crc());
+        assertEquals(ContentHash.hex(crc.getValue()), hash.crc32());
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(gzipped))) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ZipArchiveWriter(pool, 4).write(List.of(new ZipArchiveWriter.Entry("server.log", gzipped, true, null)), out);
+
+        try (ZipInputStream stream = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry = stream.getNextEntry();
+            assertEquals("server.log", entry.getName());
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals(header.dataLength(), entry.getCompressedSize());
+            assertArrayEquals(content, stream.readAllBytes());
+        }
+    }
+
+    @Test
+    void storesEntriesWithTheirRecordedChecksum() throws Exception {
+        byte[] noise = new byte[300_000];
+        new Random(3).nextBytes(noise);
+        Path path = dir.resolve("noise.bin");
+        Files.write(path, noise);
+        CRC32 crc = new CRC32();
+        crc.update(noise);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ZipArchiveWriter(pool, 4).write(List.of(
+                new ZipArchiveWriter.Entry("noise.bin", path, false, crc.getValue()),
+                // Taken as given rather than checked: the file is not read for it
+                new ZipArchiveWriter.Entry("photo.jpg", path, false, 0x12345678L)), out);
+
+        Path zip = dir.resolve("out.zip");
+        Files.write(zip, out.toByteArray());
+        try (ZipFile reader = new ZipFile(zip.toFile())) {
+            ZipEntry entry = reader.getEntry("noise.bin");
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals(crc.getValue(), entry.getCrc());
+            assertArrayEquals(noise, reader.getInputStream(entry).readAllBytes());
+            assertEquals(0x12345678L, reader.getEntry("photo.jpg").getCrc());
+        }
+    }
+
+    @Test
+    void combinesBlockChecksums() {
+        byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+        int split = 37_123;
+
+        CRC32 whole = new CRC32();
+        whole.update(data);
+        CRC32 first = new CRC32();
+        first.update(data, 0, split);
+        CRC32 second = new CRC32();
+        second.update(data, split, data.length - split);
+
+        assertEquals(whole.getValue(),
+                ZipArchiveWriter.Crc32.combine(first.getValue(), second.getValue(), data.length - split));
+    }
+}
@@ -0,0 +1,58 @@
+package com.sameerbasha1.shazam.web;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Path;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "shazam.ratelimit.download.requests-per-second=0.001",
+        "shazam.ratelimit.download.burst=2"
+})
+@AutoConfigureMockMvc
+class RateLimitFilterTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Test
+    void limitsByPeerAddressNotForwardedHeader() throws Exception {
+        mvc.perform(get("/api/d/missing").header("X-Forwarded-For", "203.0.113.1"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().string("RateLimit-Remaining", "1"));
+        mvc.perform(get("/api/d/missing").header("X-Forwarded-For", "203.0.113.2"))
+                .andExpect(status().isNotFound());
+
+        // A new X-Forwarded-For does not buy a new bucket
+        mvc.perform(get("/api/d/missing").header("X-Forwarded-For", "203.0.113.3"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists("Retry-After"));
+
+        mvc.perform(get("/api/d/missing").with(request -> {
+                    request.setRemoteAddr("192.0.2.7");
+                    return request;
+                }))
+                .andExpect(status().isNotFound());
+
+        // Endpoints outside the limits are not counted
+        mvc.perform(get("/api/health")).andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,70 @@
+package com.sameerbasha1.shazam.web;
+
+import com.sameerbasha1.shazam.service.UploadAdmission;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// With a high-water mark of 0 the disk is always too full
+@SpringBootTest(properties = {
+        "shazam.storage.admission.high-water=0",
+        "shazam.storage.admission.retry-after-seconds=7"
+})
+@AutoConfigureMockMvc
+class UploadAdmissionFilterTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("shazam.storage.upload-dir", () -> uploadDir.toString());
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private UploadAdmission admission;
+
+    @Test
+    void turnsUploadsAwayWithRetryAfterWhenStorageIsFull() throws Exception {
+        long rejected = (long) admission.getMetrics().get("rejected");
+
+        mvc.perform(multipart("/api/upload").file(new MockMultipartFile("files", "a.txt", null, new byte[1000])))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "7"))
+                .andExpect(header().string("Connection", "close"))
+                .andExpect(jsonPath("$.error").exists());
+
+        // Chunks are admitted too, before the upload they belong to is even looked up
+        mvc.perform(put("/api/upload/unknown/chunk/0").content(new byte[1000]))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "7"));
+
+        assertEquals(rejected + 2, (long) admission.getMetrics().get("rejected"));
+
+        // Requests that upload nothing are not held back
+        mvc.perform(post("/api/upload/preflight")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"hashes\":[\"" + "ab".repeat(32) + "\"]}"))
+                .andExpect(status().isOk());
+    }
+}